@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.pi.runtime.PiAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Blocks flows by writing drop entries straight into the fabric ACL table of the devices that reported them.
+ * <p>
+ * Each batch becomes one {@link FlowRuleOperations} per device, so there is no distributed policy store hop and a
+ * block is only installed where it is needed. Blocks requested without a reporting device are installed on every
+ * ConQuest device.
+ */
+final class AclMitigationBackend implements MitigationBackend {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ApplicationId appId;
+    private final FlowRuleService flowRuleService;
+    private final Supplier<Collection<DeviceId>> conquestDevices;
+    private final Map<BlockedFlowIndex.Entry, List<FlowRule>> installedRules = new HashMap<>();
+
+    /**
+     * Creates an ACL mitigation backend.
+     *
+     * @param appId           application installing the ACL entries
+     * @param flowRuleService flow rule service used to write the entries
+     * @param conquestDevices supplies the devices to block on when a block has no reporting device
+     */
+    AclMitigationBackend(ApplicationId appId, FlowRuleService flowRuleService,
+                         Supplier<Collection<DeviceId>> conquestDevices) {
+        this.appId = appId;
+        this.flowRuleService = flowRuleService;
+        this.conquestDevices = conquestDevices;
+    }
+
+    @Override
+    public void activate() {
+    }
+
+    @Override
+    public void deactivate() {
+        Map<DeviceId, FlowRuleOperations.Builder> ops = new HashMap<>();
+        installedRules.values().forEach(rules -> rules.forEach(
+                rule -> ops.computeIfAbsent(rule.deviceId(), d -> FlowRuleOperations.builder()).remove(rule)));
+        installedRules.clear();
+        submit(ops);
+    }
+
+    @Override
+    public void block(List<BlockedFlowIndex.Entry> entries) {
+        Map<DeviceId, FlowRuleOperations.Builder> ops = new HashMap<>();
+        for (BlockedFlowIndex.Entry entry : entries) {
+            Collection<DeviceId> devices = entry.device() != null
+                    ? List.of(entry.device()) : conquestDevices.get();
+            List<FlowRule> rules = new ArrayList<>(devices.size());
+            for (DeviceId deviceId : devices) {
+                FlowRule rule = buildAclDropRule(appId, deviceId, entry.key());
+                ops.computeIfAbsent(deviceId, d -> FlowRuleOperations.builder()).add(rule);
+                rules.add(rule);
+            }
+            installedRules.put(entry, rules);
+        }
+        submit(ops);
+    }
+
+    @Override
+    public void unblock(List<BlockedFlowIndex.Entry> entries) {
+        Map<DeviceId, FlowRuleOperations.Builder> ops = new HashMap<>();
+        for (BlockedFlowIndex.Entry entry : entries) {
+            List<FlowRule> rules = installedRules.remove(entry);
+            if (rules == null) {
+                continue;
+            }
+            for (FlowRule rule : rules) {
+                ops.computeIfAbsent(rule.deviceId(), d -> FlowRuleOperations.builder()).remove(rule);
+            }
+        }
+        submit(ops);
+    }
+
+    private void submit(Map<DeviceId, FlowRuleOperations.Builder> ops) {
+        ops.forEach((deviceId, builder) -> flowRuleService.apply(builder.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onError(FlowRuleOperations failedOps) {
+                log.warn("Failed to update ACL blocks on {}: {}", deviceId, failedOps);
+            }
+        })));
+    }
+
+    /**
+     * Builds an ACL entry that drops the given 5-tuple.
+     *
+     * @param appId    application installing the entry
+     * @param deviceId device to install the entry on
+     * @param key      a TCP or UDP flow
+     * @return the flow rule
+     */
+    static FlowRule buildAclDropRule(ApplicationId appId, DeviceId deviceId, FlowKey key) {
+        PiCriterion match = PiCriterion.builder()
+                .matchTernary(Constants.ACL_IP_PROTO, key.protocol() & 0xff, 0xff)
+                .matchTernary(Constants.ACL_IP_SRC, key.srcIp(), 0xffffffff)
+                .matchTernary(Constants.ACL_IP_DST, key.dstIp(), 0xffffffff)
+                .matchTernary(Constants.ACL_PORT_SRC, key.srcPort(), 0xffff)
+                .matchTernary(Constants.ACL_PORT_DST, key.dstPort(), 0xffff)
+                .build();
+
+        PiAction action = PiAction.builder()
+                .withId(Constants.ACL_DROP)
+                .build();
+
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId).fromApp(appId).makePermanent()
+                .forTable(Constants.ACL_TABLE)
+                .withSelector(DefaultTrafficSelector.builder().matchPi(match).build())
+                .withTreatment(DefaultTrafficTreatment.builder().piTableAction(action).build())
+                .withPriority(Constants.ACL_DROP_PRIORITY)
+                .build();
+    }
+}
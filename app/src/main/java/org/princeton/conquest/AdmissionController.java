@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onosproject.net.DeviceId;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the rate at which each device's reports are admitted for processing, so that one device flooding the
+ * controller cannot starve the others.
+ * <p>
+ * Each device has a token bucket, kept as a single theoretical arrival time that is advanced with compare-and-set
+ * (the generic cell rate algorithm), so admission never locks and allocates nothing. A device that exhausts its
+ * bucket is overloaded: rather than cutting it off, one in every few of its reports is still admitted at random, so
+ * the reports that do get through remain a fair sample of what the device is reporting. The rest are shed and
+ * counted.
+ */
+final class AdmissionController {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /**
+     * Admission parameters, replaced as a whole when reconfigured.
+     */
+    private static final class Limits {
+        private final long emissionNanos;
+        private final long burstNanos;
+        private final int sampleOneIn;
+
+        private Limits(int ratePerSecond, int burst, int sampleOneIn) {
+            this.emissionNanos = ratePerSecond > 0 ? Math.max(1, NANOS_PER_SECOND / ratePerSecond) : 0;
+            this.burstNanos = emissionNanos * Math.max(1, burst);
+            this.sampleOneIn = sampleOneIn;
+        }
+    }
+
+    private static final class Bucket {
+        private final AtomicLong theoreticalArrivalNanos = new AtomicLong(Long.MIN_VALUE / 2);
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder sampled = new LongAdder();
+        private final LongAdder shed = new LongAdder();
+
+        private boolean tryAcquire(long nowNanos, Limits limits) {
+            while (true) {
+                long tat = theoreticalArrivalNanos.get();
+                long newTat = Math.max(tat, nowNanos) + limits.emissionNanos;
+                if (newTat - nowNanos > limits.burstNanos) {
+                    return false;
+                }
+                if (theoreticalArrivalNanos.compareAndSet(tat, newTat)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final ConcurrentMap<DeviceId, Bucket> buckets = new ConcurrentHashMap<>();
+    private volatile Limits limits;
+
+    /**
+     * Creates an admission controller.
+     *
+     * @param ratePerSecond reports per second admitted from each device; 0 admits everything
+     * @param burst         number of reports a device may send at once after being idle
+     * @param sampleOneIn   once a device is over its rate, admit one in this many of its reports at random; 0 sheds
+     *                      all of them
+     */
+    AdmissionController(int ratePerSecond, int burst, int sampleOneIn) {
+        configure(ratePerSecond, burst, sampleOneIn);
+    }
+
+    /**
+     * Changes the admission parameters. Buckets keep their current fill.
+     *
+     * @param ratePerSecond reports per second admitted from each device; 0 admits everything
+     * @param burst         number of reports a device may send at once after being idle
+     * @param sampleOneIn   once a device is over its rate, admit one in this many of its reports at random; 0 sheds
+     *                      all of them
+     */
+    void configure(int ratePerSecond, int burst, int sampleOneIn) {
+        this.limits = new Limits(ratePerSecond, burst, sampleOneIn);
+    }
+
+    /**
+     * Decides whether to process a report from a device and counts the decision.
+     *
+     * @param deviceId the device that sent the report
+     * @return true if the report should be processed
+     */
+    boolean admit(DeviceId deviceId) {
+        Bucket bucket = buckets.get(deviceId);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(deviceId, id -> new Bucket());
+        }
+        final Limits current = limits;
+        if (current.emissionNanos == 0 || bucket.tryAcquire(System.nanoTime(), current)) {
+            bucket.admitted.increment();
+            return true;
+        }
+        if (current.sampleOneIn > 0 && ThreadLocalRandom.current().nextInt(current.sampleOneIn) == 0) {
+            bucket.sampled.increment();
+            return true;
+        }
+        bucket.shed.increment();
+        return false;
+    }
+
+    /**
+     * Forgets a device that left the network.
+     *
+     * @param deviceId the device
+     */
+    void deviceRemoved(DeviceId deviceId) {
+        buckets.remove(deviceId);
+    }
+
+    long admittedCount() {
+        return buckets.values().stream().mapToLong(bucket -> bucket.admitted.sum()).sum();
+    }
+
+    long sampledCount() {
+        return buckets.values().stream().mapToLong(bucket -> bucket.sampled.sum()).sum();
+    }
+
+    long shedCount() {
+        return buckets.values().stream().mapToLong(bucket -> bucket.shed.sum()).sum();
+    }
+
+    /**
+     * Returns the number of reports shed from each device.
+     *
+     * @return shed report counts keyed by device
+     */
+    Map<DeviceId, Long> shedByDevice() {
+        Map<DeviceId, Long> counts = new LinkedHashMap<>();
+        buckets.forEach((deviceId, bucket) -> counts.put(deviceId, bucket.shed.sum()));
+        return counts;
+    }
+}
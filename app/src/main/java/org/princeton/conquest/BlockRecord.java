@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onosproject.cluster.NodeId;
+import org.onosproject.net.DeviceId;
+
+/**
+ * Cluster-wide record of a blocked flow, shared between ONOS instances.
+ * <p>
+ * Only the owner instance, the one that claimed the block first, installs it and removes it when it expires; other
+ * instances keep a mirror of it so that their reports for the flow extend the existing block.
+ */
+final class BlockRecord {
+
+    private final NodeId owner;
+    private final DeviceId device;
+    private final long expiryMillis;
+    private final ConQuestReport report;
+
+    /**
+     * Creates a block record.
+     *
+     * @param owner        instance that installed the block
+     * @param device       device that reported the flow, or null
+     * @param expiryMillis epoch time in milliseconds at which the block ends, or {@link BlockedFlowIndex#NEVER}
+     * @param report       the report that triggered the block
+     */
+    BlockRecord(NodeId owner, DeviceId device, long expiryMillis, ConQuestReport report) {
+        this.owner = owner;
+        this.device = device;
+        this.expiryMillis = expiryMillis;
+        this.report = report;
+    }
+
+    NodeId owner() {
+        return owner;
+    }
+
+    DeviceId device() {
+        return device;
+    }
+
+    long expiryMillis() {
+        return expiryMillis;
+    }
+
+    ConQuestReport report() {
+        return report;
+    }
+
+    BlockRecord withExpiry(long newExpiryMillis) {
+        return new BlockRecord(owner, device, newExpiryMillis, report);
+    }
+}
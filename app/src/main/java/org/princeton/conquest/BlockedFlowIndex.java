@@ -0,0 +1,242 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onosproject.net.DeviceId;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe index of the flows currently blocked by the app, keyed by 5-tuple.
+ * <p>
+ * A report for a flow that is already blocked only pushes the block's expiry time out; the caller is expected to
+ * write to the control plane only for flows newly claimed through {@link #claim}. An expired block is released with a
+ * compare-and-set on its expiry, so a block is either extended or released, never extended after being released.
+ */
+final class BlockedFlowIndex {
+
+    /** Expiry time of blocks that never expire. */
+    static final long NEVER = Long.MAX_VALUE;
+
+    private final ConcurrentMap<FlowKey, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder installs = new LongAdder();
+    private final LongAdder extensions = new LongAdder();
+    private final LongAdder unblocks = new LongAdder();
+
+    /**
+     * A blocked flow.
+     */
+    static final class Entry {
+        private final FlowKey key;
+        private final ConQuestReport report;
+        private final DeviceId device;
+        private final boolean mirror;
+        // Expiry time, or its complement once the block has been released
+        private final AtomicLong expiryMillis;
+
+        private Entry(FlowKey key, ConQuestReport report, DeviceId device, boolean mirror, long expiryMillis) {
+            this.key = key;
+            this.report = report;
+            this.device = device;
+            this.mirror = mirror;
+            this.expiryMillis = new AtomicLong(expiryMillis);
+        }
+
+        FlowKey key() {
+            return key;
+        }
+
+        /**
+         * Returns the report that caused the flow to be blocked.
+         *
+         * @return the report
+         */
+        ConQuestReport report() {
+            return report;
+        }
+
+        /**
+         * Returns the device that reported the flow.
+         *
+         * @return the reporting device, or null if the block was requested directly
+         */
+        DeviceId device() {
+            return device;
+        }
+
+        /**
+         * Returns whether the block is a mirror of a block installed by another cluster instance.
+         *
+         * @return true if another instance owns the block
+         */
+        boolean isMirror() {
+            return mirror;
+        }
+
+        long expiryMillis() {
+            final long expiry = expiryMillis.get();
+            return expiry < 0 ? ~expiry : expiry;
+        }
+
+        /**
+         * Pushes the expiry out, unless the block has already been released.
+         */
+        private boolean extendTo(long newExpiryMillis) {
+            long expiry = expiryMillis.get();
+            while (expiry >= 0) {
+                if (newExpiryMillis <= expiry || expiryMillis.compareAndSet(expiry, newExpiryMillis)) {
+                    return true;
+                }
+                expiry = expiryMillis.get();
+            }
+            return false;
+        }
+
+        /**
+         * Releases the block if its expiry has passed, so it can no longer be extended.
+         */
+        private boolean releaseIfExpired(long nowMillis) {
+            long expiry = expiryMillis.get();
+            while (expiry >= 0 && expiry <= nowMillis) {
+                if (expiryMillis.compareAndSet(expiry, ~expiry)) {
+                    return true;
+                }
+                expiry = expiryMillis.get();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Claims a flow for blocking. If the flow is already blocked its expiry is extended instead.
+     *
+     * @param key          the flow to block
+     * @param report       the report that triggered the block
+     * @param device       the device that sent the report, or null
+     * @param expiryMillis epoch time in milliseconds at which the block should end, or {@link #NEVER}
+     * @return the new entry, which the caller must install, or null if the flow was already blocked
+     */
+    Entry claim(FlowKey key, ConQuestReport report, DeviceId device, long expiryMillis) {
+        while (true) {
+            Entry existing = entries.get(key);
+            if (existing == null) {
+                Entry fresh = new Entry(key, report, device, false, expiryMillis);
+                existing = entries.putIfAbsent(key, fresh);
+                if (existing == null) {
+                    installs.increment();
+                    return fresh;
+                }
+            }
+            if (existing.extendTo(expiryMillis)) {
+                extensions.increment();
+                return null;
+            }
+            // The block expired and is being removed; take its place with a new one
+            entries.remove(key, existing);
+        }
+    }
+
+    /**
+     * Records a block owned by another cluster instance. If the flow is already in the index its expiry is extended
+     * instead.
+     *
+     * @param key          the blocked flow
+     * @param report       the report that triggered the block
+     * @param device       the device that sent the report, or null
+     * @param expiryMillis epoch time in milliseconds at which the block ends, or {@link #NEVER}
+     * @return the new mirror entry, or null if the flow was already in the index
+     */
+    Entry mirror(FlowKey key, ConQuestReport report, DeviceId device, long expiryMillis) {
+        Entry fresh = new Entry(key, report, device, true, expiryMillis);
+        while (true) {
+            Entry existing = entries.putIfAbsent(key, fresh);
+            if (existing == null) {
+                return fresh;
+            }
+            if (existing.extendTo(expiryMillis)) {
+                return null;
+            }
+            entries.remove(key, existing);
+        }
+    }
+
+    /**
+     * Pushes the expiry of a blocked flow out, if the new expiry is later.
+     *
+     * @param entry        the blocked flow
+     * @param expiryMillis the new expiry time in epoch milliseconds
+     */
+    void extend(Entry entry, long expiryMillis) {
+        entry.extendTo(expiryMillis);
+    }
+
+    /**
+     * Drops a mirror entry from the index. Unlike {@link #removeIfExpired}, this does not count as an unblock.
+     *
+     * @param entry the mirror entry
+     * @return true if the entry was still in the index
+     */
+    boolean forget(Entry entry) {
+        return entries.remove(entry.key(), entry);
+    }
+
+    /**
+     * Removes a blocked flow from the index if its expiry has passed. A block extended after it came due stays in the
+     * index, and the caller should schedule it again.
+     *
+     * @param entry     the entry to remove
+     * @param nowMillis current epoch time in milliseconds
+     * @return true if the block expired and was removed; false if it was extended or is no longer in the index
+     */
+    boolean removeIfExpired(Entry entry, long nowMillis) {
+        if (!entry.releaseIfExpired(nowMillis)) {
+            return false;
+        }
+        // A concurrent claim of the flow may already have removed the released entry
+        entries.remove(entry.key(), entry);
+        unblocks.increment();
+        return true;
+    }
+
+    Entry get(FlowKey key) {
+        return entries.get(key);
+    }
+
+    Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long installCount() {
+        return installs.sum();
+    }
+
+    long extensionCount() {
+        return extensions.sum();
+    }
+
+    long unblockCount() {
+        return unblocks.sum();
+    }
+}
@@ -15,30 +15,38 @@
  */
 package org.princeton.conquest;
 
-import org.jboss.netty.util.HashedWheelTimer;
-import org.jboss.netty.util.Timeout;
-import org.jboss.netty.util.Timer;
-import org.jboss.netty.util.TimerTask;
+import com.codahale.metrics.Metric;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.metrics.MetricsService;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.Ip4Address;
 import org.onlab.packet.Ip4Prefix;
-import org.onlab.packet.IpPrefix;
-import org.onlab.packet.TpPort;
-import org.onlab.util.ImmutableByteSequence;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.cluster.ClusterService;
+import org.onosproject.cluster.NodeId;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
+import org.onosproject.mastership.MastershipEvent;
+import org.onosproject.mastership.MastershipListener;
+import org.onosproject.mastership.MastershipService;
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.flow.DefaultFlowRule;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
 import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowId;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
 import org.onosproject.net.flow.FlowRuleService;
-import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.criteria.PiCriterion;
 import org.onosproject.net.group.Group;
 import org.onosproject.net.group.GroupDescription;
@@ -49,14 +57,21 @@ import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.PacketContext;
 import org.onosproject.net.packet.PacketProcessor;
 import org.onosproject.net.packet.PacketService;
-import org.onosproject.net.pi.model.PiPipeconf;
 import org.onosproject.net.pi.runtime.PiAction;
 import org.onosproject.net.pi.service.PiPipeconfService;
-import org.onosproject.segmentrouting.policy.api.DropPolicy;
-import org.onosproject.segmentrouting.policy.api.PolicyId;
+import org.onosproject.net.pi.service.PiPipeconfWatchdogEvent;
+import org.onosproject.net.pi.service.PiPipeconfWatchdogListener;
+import org.onosproject.net.pi.service.PiPipeconfWatchdogService;
 import org.onosproject.segmentrouting.policy.api.PolicyService;
-import org.onosproject.segmentrouting.policy.api.TrafficMatch;
-import org.onosproject.segmentrouting.policy.api.TrafficMatchId;
+import org.onosproject.store.serializers.KryoNamespaces;
+import org.onosproject.store.service.AtomicValue;
+import org.onosproject.store.service.AtomicValueEventListener;
+import org.onosproject.store.service.EventuallyConsistentMap;
+import org.onosproject.store.service.EventuallyConsistentMapEvent;
+import org.onosproject.store.service.EventuallyConsistentMapListener;
+import org.onosproject.store.service.Serializer;
+import org.onosproject.store.service.StorageService;
+import org.onosproject.store.service.WallClockTimestamp;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -66,25 +81,103 @@ import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.time.LocalTime;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import static org.onlab.util.Tools.get;
+import static org.onlab.util.Tools.getIntegerProperty;
+import static org.onlab.util.Tools.groupedThreads;
+import static org.onlab.util.Tools.isPropertyEnabled;
+import static org.princeton.conquest.OsgiPropertyConstants.ADMISSION_BURST;
+import static org.princeton.conquest.OsgiPropertyConstants.ADMISSION_BURST_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.ADMISSION_RATE;
+import static org.princeton.conquest.OsgiPropertyConstants.ADMISSION_RATE_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.ADMISSION_SAMPLE_ONE_IN;
+import static org.princeton.conquest.OsgiPropertyConstants.ADMISSION_SAMPLE_ONE_IN_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.DECODE_MODE;
+import static org.princeton.conquest.OsgiPropertyConstants.DECODE_MODE_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.DECODE_MODE_FLYWEIGHT;
+import static org.princeton.conquest.OsgiPropertyConstants.DECODE_MODE_LEGACY;
+import static org.princeton.conquest.OsgiPropertyConstants.FLOW_TABLE_CAPACITY;
+import static org.princeton.conquest.OsgiPropertyConstants.FLOW_TABLE_CAPACITY_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.HEAVY_HITTER_CAPACITY;
+import static org.princeton.conquest.OsgiPropertyConstants.HEAVY_HITTER_CAPACITY_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.INGEST_QUEUE_CAPACITY;
+import static org.princeton.conquest.OsgiPropertyConstants.INGEST_QUEUE_CAPACITY_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.INGEST_SHARDS;
+import static org.princeton.conquest.OsgiPropertyConstants.INGEST_SHARDS_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BACKEND;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BACKEND_ACL;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BACKEND_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BACKEND_POLICY;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BATCH_SIZE;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BATCH_SIZE_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BATCH_WINDOW_MS;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BATCH_WINDOW_MS_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_BUFFER_BYTES;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_BUFFER_BYTES_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_LOG_ENABLED;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_LOG_ENABLED_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_LOG_RETENTION_MB;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_LOG_RETENTION_MB_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_LOG_RETENTION_MINUTES;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_LOG_RETENTION_MINUTES_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_LOG_SEGMENT_MB;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_LOG_SEGMENT_MB_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_RETENTION_SECONDS;
+import static org.princeton.conquest.OsgiPropertyConstants.REPORT_RETENTION_SECONDS_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.TRIGGER_CONTROL_INTERVAL_MS;
+import static org.princeton.conquest.OsgiPropertyConstants.TRIGGER_CONTROL_INTERVAL_MS_DEFAULT;
+import static org.princeton.conquest.OsgiPropertyConstants.TRIGGER_REPORT_BUDGET;
+import static org.princeton.conquest.OsgiPropertyConstants.TRIGGER_REPORT_BUDGET_DEFAULT;
+
 /**
  * Skeletal ONOS application component.
  */
 @Component(immediate = true,
-        service = {ConQuestService.class}
+        service = {ConQuestService.class},
+        property = {
+                REPORT_BUFFER_BYTES + ":Integer=" + REPORT_BUFFER_BYTES_DEFAULT,
+                REPORT_RETENTION_SECONDS + ":Integer=" + REPORT_RETENTION_SECONDS_DEFAULT,
+                DECODE_MODE + "=" + DECODE_MODE_DEFAULT,
+                INGEST_SHARDS + ":Integer=" + INGEST_SHARDS_DEFAULT,
+                INGEST_QUEUE_CAPACITY + ":Integer=" + INGEST_QUEUE_CAPACITY_DEFAULT,
+                MITIGATION_BATCH_WINDOW_MS + ":Integer=" + MITIGATION_BATCH_WINDOW_MS_DEFAULT,
+                MITIGATION_BATCH_SIZE + ":Integer=" + MITIGATION_BATCH_SIZE_DEFAULT,
+                MITIGATION_BACKEND + "=" + MITIGATION_BACKEND_DEFAULT,
+                REPORT_LOG_ENABLED + ":Boolean=" + REPORT_LOG_ENABLED_DEFAULT,
+                REPORT_LOG_SEGMENT_MB + ":Integer=" + REPORT_LOG_SEGMENT_MB_DEFAULT,
+                REPORT_LOG_RETENTION_MB + ":Integer=" + REPORT_LOG_RETENTION_MB_DEFAULT,
+                REPORT_LOG_RETENTION_MINUTES + ":Integer=" + REPORT_LOG_RETENTION_MINUTES_DEFAULT,
+                HEAVY_HITTER_CAPACITY + ":Integer=" + HEAVY_HITTER_CAPACITY_DEFAULT,
+                FLOW_TABLE_CAPACITY + ":Integer=" + FLOW_TABLE_CAPACITY_DEFAULT,
+                TRIGGER_REPORT_BUDGET + ":Integer=" + TRIGGER_REPORT_BUDGET_DEFAULT,
+                TRIGGER_CONTROL_INTERVAL_MS + ":Integer=" + TRIGGER_CONTROL_INTERVAL_MS_DEFAULT,
+                ADMISSION_RATE + ":Integer=" + ADMISSION_RATE_DEFAULT,
+                ADMISSION_BURST + ":Integer=" + ADMISSION_BURST_DEFAULT,
+                ADMISSION_SAMPLE_ONE_IN + ":Integer=" + ADMISSION_SAMPLE_ONE_IN_DEFAULT,
+        }
 )
 public class ConQuest implements ConQuestService {
 
@@ -92,7 +185,14 @@ public class ConQuest implements ConQuestService {
 
     private ApplicationId appId;
     private static final int DEFAULT_PRIORITY = 10;
-    private int blockDuration = Constants.DEFAULT_BLOCK_DURATION_MS; // milliseconds
+    private static final long UNBLOCK_TICK_MS = 10;
+    // Each tracked flow takes two table slots of about 64 bytes, so this keeps one flow table to about 512MiB
+    private static final int MAX_FLOW_TABLE_CAPACITY = 1 << 22;
+    // How long reports from a device are still processed after this instance stops being its master
+    private static final long MASTERSHIP_HANDOVER_GRACE_MS = 2000;
+    private volatile int blockDuration = Constants.DEFAULT_BLOCK_DURATION_MS; // milliseconds
+    // Minimum extension of a block worth telling the other cluster instances about
+    private static final long EXTENSION_PUBLISH_MS = 1000;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected DeviceService deviceService;
@@ -115,15 +215,137 @@ public class ConQuest implements ConQuestService {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected PiPipeconfService pipeconfService;
 
-    private final List<ConQuestReport> receivedReports = new ArrayList<>();
-    private final Timer unblockingTimer = new HashedWheelTimer();
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected PiPipeconfWatchdogService pipeconfWatchdogService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService cfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected MetricsService metricsService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected StorageService storageService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ClusterService clusterService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected MastershipService mastershipService;
+
+    /** Memory budget in bytes for stored reports; oldest reports are dropped once it is exhausted. */
+    private int reportBufferBytes = REPORT_BUFFER_BYTES_DEFAULT;
+
+    private volatile ReportRingBuffer receivedReports = ReportRingBuffer.withByteBudget(reportBufferBytes);
+
+    /** Seconds after which stored reports are dropped; 0 keeps them until the report buffer overwrites them. */
+    private int reportRetentionSeconds = REPORT_RETENTION_SECONDS_DEFAULT;
+
+    private final ReportClock reportClock = new ReportClock();
+
+    /** Whether received reports are also written to the on-disk report log. */
+    private boolean reportLogEnabled = REPORT_LOG_ENABLED_DEFAULT;
+
+    /** Size in MiB of each report log segment file. */
+    private int reportLogSegmentMb = REPORT_LOG_SEGMENT_MB_DEFAULT;
+
+    /** Total size in MiB of report log segments to keep. */
+    private int reportLogRetentionMb = REPORT_LOG_RETENTION_MB_DEFAULT;
+
+    /** Minutes after which report log segments are deleted. */
+    private int reportLogRetentionMinutes = REPORT_LOG_RETENTION_MINUTES_DEFAULT;
+
+    private volatile ReportLog reportLog;
+
+    /** Number of flows and addresses each heavy hitter sketch keeps track of. */
+    private int heavyHitterCapacity = HEAVY_HITTER_CAPACITY_DEFAULT;
+
+    private volatile HeavyHitterTracker heavyHitters = new HeavyHitterTracker(heavyHitterCapacity);
+
+    /** Number of flows each ingest thread keeps per-flow statistics for; the least recently reported are evicted. */
+    private int flowTableCapacity = FLOW_TABLE_CAPACITY_DEFAULT;
+
+    private volatile FlowTable flowTable = new FlowTable(flowTableCapacity);
+
+    /** Packet-in decoder: "flyweight" reads reports in place, "legacy" re-serializes and boxes every field. */
+    private volatile boolean legacyDecode = DECODE_MODE_LEGACY.equals(DECODE_MODE_DEFAULT);
+
+    /** Number of worker shards reports are processed on; 0 processes reports on the packet dispatch thread. */
+    private int ingestShards = INGEST_SHARDS_DEFAULT;
+
+    /** Maximum number of reports waiting on each ingest shard. */
+    private int ingestQueueCapacity = INGEST_QUEUE_CAPACITY_DEFAULT;
+
+    private volatile ReportIngestPipeline ingestPipeline;
+
+    /** Reports per second admitted from each device; 0, the default, disables admission control. */
+    private int admissionRate = ADMISSION_RATE_DEFAULT;
+
+    /** Reports a device may send at once, above its admission rate, after being idle. */
+    private int admissionBurst = ADMISSION_BURST_DEFAULT;
+
+    /** Once a device exceeds its admission rate, one in this many of its reports is still admitted at random. */
+    private int admissionSampleOneIn = ADMISSION_SAMPLE_ONE_IN_DEFAULT;
+
+    private final AdmissionController admissionController =
+            new AdmissionController(admissionRate, admissionBurst, admissionSampleOneIn);
+    private MitigationBatcher mitigationBatcher;
+
+    /** Time in milliseconds over which block and unblock decisions are gathered into one batch. */
+    private int mitigationBatchWindowMs = MITIGATION_BATCH_WINDOW_MS_DEFAULT;
+
+    /** Maximum number of block and unblock decisions applied in one batch. */
+    private int mitigationBatchSize = MITIGATION_BATCH_SIZE_DEFAULT;
+
+    /** Reports per second each device may send before its trigger thresholds are raised; 0 keeps them fixed. */
+    private int triggerReportBudget = TRIGGER_REPORT_BUDGET_DEFAULT;
+
+    /** Time in milliseconds between adjustments of the report trigger thresholds. */
+    private int triggerControlIntervalMs = TRIGGER_CONTROL_INTERVAL_MS_DEFAULT;
+
+    /** How blocks are installed: "policy" uses segment routing drop policies, "acl" writes ACL entries directly. */
+    private String mitigationBackendName;
+
+    // Only read and replaced on the mitigation thread
+    private MitigationBackend mitigationBackend;
+    private ConQuestMetrics metrics;
+    private ExpiryScheduler expiryScheduler;
     private final CustomPacketProcessor processor = new CustomPacketProcessor();
-    private final Set<ConQuestReport> blockedFlows = new HashSet<>();
-    private final Set<Ip4Prefix> whitelist = new HashSet<>();
+    private final BlockedFlowIndex blockedFlows = new BlockedFlowIndex();
+    private final TriggerRuleIndex triggerRules = new TriggerRuleIndex();
+    private TriggerThresholdController triggerController;
+    private final FlowRuleListener triggerRuleListener = new InternalFlowRuleListener();
+    // Compiled whitelist, replaced as a whole whenever it changes so lookups never see a partial update
+    private volatile PrefixTrie whitelist = PrefixTrie.EMPTY;
+    private final Object whitelistLock = new Object();
+    private final AtomicBoolean whitelistRebuildPending = new AtomicBoolean();
+    private ExecutorService whitelistExecutor;
+
+    // Shared with the other cluster instances. The blocked flow index, the whitelist trie and the block duration
+    // field are local read caches of these, so checking a report never leaves this instance.
+    private NodeId localNodeId;
+    private EventuallyConsistentMap<FlowKey, BlockRecord> distributedBlocks;
+    // The whole whitelist is one immutable value, so every instance rebuilds from a complete version of it
+    private AtomicValue<Set<Ip4Prefix>> distributedWhitelist;
+    private AtomicValue<Integer> distributedBlockDuration;
+    private final EventuallyConsistentMapListener<FlowKey, BlockRecord> blockListener = new InternalBlockListener();
+    private final AtomicValueEventListener<Set<Ip4Prefix>> whitelistListener = event -> scheduleWhitelistRebuild();
+    private final AtomicValueEventListener<Integer> blockDurationListener = event -> {
+        if (event.newValue() != null) {
+            blockDuration = event.newValue();
+        }
+    };
 
-    private PolicyId blockingPolicyId;
+    // Whether each device runs a ConQuest pipeconf; invalidated by device and pipeconf watchdog events
+    private final Map<DeviceId, Boolean> cachedConquestDeviceLookups = new ConcurrentHashMap<>();
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+    private final PiPipeconfWatchdogListener pipeconfListener = new InternalPipeconfWatchdogListener();
+    private ExecutorService deviceEventExecutor;
+    private volatile IngestPartitioner ingestPartitioner;
+    private final MastershipListener mastershipListener = new InternalMastershipListener();
 
-    private final Map<DeviceId, Boolean> cachedConquestDeviceLookups = new HashMap<>();
+    // Trigger thresholds last installed on all devices, also installed on devices that join later; null if none
+    private volatile TriggerProfile triggerProfile;
 
 
     private String getHexString(byte[] byteBuffer) {
@@ -136,145 +358,695 @@ public class ConQuest implements ConQuestService {
 
 
     @Activate
-    protected void activate() {
-        // currently no properties to register
-        //cfgService.registerProperties(getClass());
+    protected void activate(ComponentContext context) {
         appId = coreService.registerApplication(Constants.APP_NAME,
                 () -> log.info("Periscope down."));
+        metrics = new ConQuestMetrics(metricsService);
+        metrics.registerBlockedFlowIndex(blockedFlows);
+        mitigationBatcher = new MitigationBatcher(mitigationBatchWindowMs, mitigationBatchSize,
+                groupedThreads("onos/conquest", "mitigation", log), this::applyMitigations,
+                metrics.mitigationBatchSize(), metrics.mitigationBatchLatency());
+        expiryScheduler = new ExpiryScheduler(UNBLOCK_TICK_MS, groupedThreads("onos/conquest", "unblock", log),
+                this::unblockExpired, metrics.unblockLag());
+        metrics.registerExpiryScheduler(expiryScheduler);
+        triggerController = new TriggerThresholdController(this::reportCountsByDevice,
+                mastershipService::isLocalMaster,
+                (deviceId, minQueueDelay, minFlowSizeInQueue) ->
+                        installReportTriggers(List.of(deviceId), minQueueDelay, minFlowSizeInQueue),
+                groupedThreads("onos/conquest", "trigger-control", log));
+        cfgService.registerProperties(getClass());
+        modified(context);
+        if (ingestPipeline == null) {
+            restartIngestPipeline();
+        }
+        if (mitigationBackendName == null) {
+            switchMitigationBackend(MITIGATION_BACKEND_DEFAULT);
+        }
+
+        initDistributedState();
+
+        // Index the trigger rules left behind by a previous activation, then keep the index in sync
+        flowRuleService.addListener(triggerRuleListener);
+        for (FlowEntry installedEntry : flowRuleService.getFlowEntriesById(appId)) {
+            if (installedEntry.table().equals(Constants.REPORT_TRIGGER_TABLE)) {
+                triggerRules.add(installedEntry);
+            }
+        }
+
+        // Only process reports from devices this instance is master of
+        ingestPartitioner = new IngestPartitioner(mastershipService, MASTERSHIP_HANDOVER_GRACE_MS);
+        metrics.registerIngestPartitioner(ingestPartitioner);
+        metrics.registerAdmissionController(admissionController);
+        mastershipService.addListener(mastershipListener);
 
         // Register the packet processor.
         packetService.addProcessor(processor, PacketProcessor.director(1));
 
-        // Set up clone sessions on all available devices
-        addAllCloneSessions();
-
-        blockingPolicyId = policyService.addOrUpdatePolicy(new DropPolicy());
+        // Provision devices as they come and go, starting with those already available
+        deviceEventExecutor = Executors.newSingleThreadExecutor(groupedThreads("onos/conquest", "device-events", log));
+        deviceService.addListener(deviceListener);
+        pipeconfWatchdogService.addListener(pipeconfListener);
+        for (Device device : deviceService.getAvailableDevices()) {
+            deviceEventExecutor.execute(() -> provisionDevice(device.id()));
+        }
 
         log.info("Started");
     }
 
     @Deactivate
     protected void deactivate() {
-        // we didnt register anything
-        //cfgService.unregisterProperties(getClass(), false);
+        cfgService.unregisterProperties(getClass(), false);
 
         // Deregister the packet processor.
         packetService.removeProcessor(processor);
-        unblockingTimer.stop();
+        mastershipService.removeListener(mastershipListener);
+        releaseDistributedState();
+        flowRuleService.removeListener(triggerRuleListener);
+        deviceService.removeListener(deviceListener);
+        pipeconfWatchdogService.removeListener(pipeconfListener);
+        deviceEventExecutor.shutdownNow();
+        if (ingestPipeline != null) {
+            // Drain the queued reports while the blocking and mitigation components they feed are still running
+            ingestPipeline.shutdown();
+            ingestPipeline.awaitTermination(ReportIngestPipeline.DRAIN_TIMEOUT_MS);
+            ingestPipeline = null;
+        }
+        expiryScheduler.shutdown();
+        triggerController.shutdown();
+        if (reportLog != null) {
+            reportLog.close();
+            reportLog = null;
+        }
+        mitigationBatcher.shutdown();
+        if (mitigationBackend != null) {
+            mitigationBackend.deactivate();
+            mitigationBackend = null;
+        }
+        mitigationBackendName = null;
+        metrics.unregisterAll();
         // Remove clone sessions and flow rules from all available devices
         cleanUp();
 
-        policyService.removePolicy(blockingPolicyId);
-
         log.info("Stopped");
     }
 
 
     @Modified
     public void modified(ComponentContext context) {
+        if (context == null) {
+            return;
+        }
+        Dictionary<?, ?> properties = context.getProperties();
+
+        int newReportBufferBytes = getIntegerProperty(properties, REPORT_BUFFER_BYTES, REPORT_BUFFER_BYTES_DEFAULT);
+        if (newReportBufferBytes <= 0) {
+            log.warn("Ignoring invalid {} value {}", REPORT_BUFFER_BYTES, newReportBufferBytes);
+        } else if (newReportBufferBytes != reportBufferBytes) {
+            ReportRingBuffer newReports = ReportRingBuffer.withByteBudget(newReportBufferBytes);
+            ReportRingBuffer oldReports = receivedReports;
+            // Copy before publishing, so the old reports keep their order and time segments ahead of new ones.
+            // Only the few reports appended while copying are caught up afterwards, within the order slack.
+            long copied = oldReports.copyInto(newReports, 0);
+            receivedReports = newReports;
+            oldReports.copyInto(newReports, copied);
+            reportBufferBytes = newReportBufferBytes;
+            log.info("Report buffer resized to {} bytes ({} reports)", reportBufferBytes, newReports.capacity());
+        }
+
+        int newReportRetentionSeconds = getIntegerProperty(properties, REPORT_RETENTION_SECONDS,
+                REPORT_RETENTION_SECONDS_DEFAULT);
+        if (newReportRetentionSeconds < 0) {
+            log.warn("Ignoring invalid {} value {}", REPORT_RETENTION_SECONDS, newReportRetentionSeconds);
+        } else {
+            reportRetentionSeconds = newReportRetentionSeconds;
+        }
+        receivedReports.setRetention(TimeUnit.SECONDS.toMillis(reportRetentionSeconds));
+
+        boolean newReportLogEnabled = isPropertyEnabled(properties, REPORT_LOG_ENABLED, REPORT_LOG_ENABLED_DEFAULT);
+        int newSegmentMb = getIntegerProperty(properties, REPORT_LOG_SEGMENT_MB, REPORT_LOG_SEGMENT_MB_DEFAULT);
+        int newRetentionMb = getIntegerProperty(properties, REPORT_LOG_RETENTION_MB, REPORT_LOG_RETENTION_MB_DEFAULT);
+        int newRetentionMinutes = getIntegerProperty(properties, REPORT_LOG_RETENTION_MINUTES,
+                REPORT_LOG_RETENTION_MINUTES_DEFAULT);
+        if (newSegmentMb <= 0 || newRetentionMb <= 0 || newRetentionMinutes <= 0) {
+            log.warn("Ignoring invalid report log configuration: {}MiB segments, {}MiB and {} minutes retention",
+                    newSegmentMb, newRetentionMb, newRetentionMinutes);
+        } else {
+            reportLogSegmentMb = newSegmentMb;
+            reportLogRetentionMb = newRetentionMb;
+            reportLogRetentionMinutes = newRetentionMinutes;
+        }
+        reportLogEnabled = newReportLogEnabled;
+        configureReportLog();
+
+        int newHeavyHitterCapacity = getIntegerProperty(properties, HEAVY_HITTER_CAPACITY,
+                HEAVY_HITTER_CAPACITY_DEFAULT);
+        if (newHeavyHitterCapacity <= 0) {
+            log.warn("Ignoring invalid {} value {}", HEAVY_HITTER_CAPACITY, newHeavyHitterCapacity);
+        } else if (newHeavyHitterCapacity != heavyHitterCapacity) {
+            // Sketches cannot be resized, so ranking starts over
+            heavyHitters = new HeavyHitterTracker(newHeavyHitterCapacity);
+            heavyHitterCapacity = newHeavyHitterCapacity;
+            log.info("Heavy hitter sketches now keep {} entries", heavyHitterCapacity);
+        }
+
+        int newFlowTableCapacity = getIntegerProperty(properties, FLOW_TABLE_CAPACITY, FLOW_TABLE_CAPACITY_DEFAULT);
+        if (newFlowTableCapacity <= 0 || newFlowTableCapacity > MAX_FLOW_TABLE_CAPACITY) {
+            log.warn("Ignoring invalid {} value {}", FLOW_TABLE_CAPACITY, newFlowTableCapacity);
+        } else if (newFlowTableCapacity != flowTableCapacity) {
+            // Flow tables are sized up front, so statistics start over
+            flowTable = new FlowTable(newFlowTableCapacity);
+            flowTableCapacity = newFlowTableCapacity;
+            log.info("Flow tables now keep {} flows", flowTableCapacity);
+        }
+
+        String decodeMode = get(properties, DECODE_MODE);
+        if (DECODE_MODE_LEGACY.equals(decodeMode)) {
+            legacyDecode = true;
+        } else if (decodeMode == null || DECODE_MODE_FLYWEIGHT.equals(decodeMode)) {
+            legacyDecode = false;
+        } else {
+            log.warn("Ignoring unknown {} value {}", DECODE_MODE, decodeMode);
+        }
+
+        int newAdmissionRate = getIntegerProperty(properties, ADMISSION_RATE, ADMISSION_RATE_DEFAULT);
+        int newAdmissionBurst = getIntegerProperty(properties, ADMISSION_BURST, ADMISSION_BURST_DEFAULT);
+        int newAdmissionSampleOneIn = getIntegerProperty(properties, ADMISSION_SAMPLE_ONE_IN,
+                ADMISSION_SAMPLE_ONE_IN_DEFAULT);
+        if (newAdmissionRate < 0 || newAdmissionBurst <= 0 || newAdmissionSampleOneIn < 0) {
+            log.warn("Ignoring invalid admission configuration: {} reports/s, burst {}, sampling one in {}",
+                    newAdmissionRate, newAdmissionBurst, newAdmissionSampleOneIn);
+        } else {
+            admissionRate = newAdmissionRate;
+            admissionBurst = newAdmissionBurst;
+            admissionSampleOneIn = newAdmissionSampleOneIn;
+            admissionController.configure(admissionRate, admissionBurst, admissionSampleOneIn);
+        }
+
+        int newIngestShards = getIntegerProperty(properties, INGEST_SHARDS, INGEST_SHARDS_DEFAULT);
+        int newIngestQueueCapacity = getIntegerProperty(properties, INGEST_QUEUE_CAPACITY,
+                INGEST_QUEUE_CAPACITY_DEFAULT);
+        if (newIngestShards < 0 || newIngestQueueCapacity <= 0) {
+            log.warn("Ignoring invalid ingest configuration: {} shards with queue capacity {}",
+                    newIngestShards, newIngestQueueCapacity);
+        } else if (newIngestShards != ingestShards || newIngestQueueCapacity != ingestQueueCapacity) {
+            ingestShards = newIngestShards;
+            ingestQueueCapacity = newIngestQueueCapacity;
+            restartIngestPipeline();
+        }
+
+        int newBatchWindowMs = getIntegerProperty(properties, MITIGATION_BATCH_WINDOW_MS,
+                MITIGATION_BATCH_WINDOW_MS_DEFAULT);
+        int newBatchSize = getIntegerProperty(properties, MITIGATION_BATCH_SIZE, MITIGATION_BATCH_SIZE_DEFAULT);
+        if (newBatchWindowMs < 0 || newBatchSize <= 0) {
+            log.warn("Ignoring invalid mitigation batching configuration: {}ms window, batch size {}",
+                    newBatchWindowMs, newBatchSize);
+        } else {
+            mitigationBatchWindowMs = newBatchWindowMs;
+            mitigationBatchSize = newBatchSize;
+            if (mitigationBatcher != null) {
+                mitigationBatcher.setWindowMs(mitigationBatchWindowMs);
+                mitigationBatcher.setMaxBatchSize(mitigationBatchSize);
+            }
+        }
+
+        int newTriggerBudget = getIntegerProperty(properties, TRIGGER_REPORT_BUDGET, TRIGGER_REPORT_BUDGET_DEFAULT);
+        int newTriggerIntervalMs = getIntegerProperty(properties, TRIGGER_CONTROL_INTERVAL_MS,
+                TRIGGER_CONTROL_INTERVAL_MS_DEFAULT);
+        if (newTriggerBudget < 0 || newTriggerIntervalMs <= 0) {
+            log.warn("Ignoring invalid report trigger control configuration: {} reports/s every {}ms",
+                    newTriggerBudget, newTriggerIntervalMs);
+        } else {
+            triggerReportBudget = newTriggerBudget;
+            triggerControlIntervalMs = newTriggerIntervalMs;
+        }
+        if (triggerController != null) {
+            triggerController.configure(triggerReportBudget, triggerControlIntervalMs);
+        }
+
+        String newBackendName = get(properties, MITIGATION_BACKEND);
+        if (newBackendName == null) {
+            newBackendName = MITIGATION_BACKEND_DEFAULT;
+        }
+        if (!MITIGATION_BACKEND_POLICY.equals(newBackendName) && !MITIGATION_BACKEND_ACL.equals(newBackendName)) {
+            log.warn("Ignoring unknown {} value {}", MITIGATION_BACKEND, newBackendName);
+        } else if (!newBackendName.equals(mitigationBackendName)) {
+            switchMitigationBackend(newBackendName);
+        }
         log.info("Reconfigured");
     }
 
-    private boolean isConquestDevice(DeviceId deviceId) {
-        Boolean answer = cachedConquestDeviceLookups.getOrDefault(deviceId, null);
-        if (answer != null) return answer;
+    /**
+     * Opens, reconfigures or closes the report log to match the current configuration.
+     */
+    private void configureReportLog() {
+        final long segmentBytes = (long) reportLogSegmentMb << 20;
+        final long retentionBytes = (long) reportLogRetentionMb << 20;
+        final long retentionMillis = TimeUnit.MINUTES.toMillis(reportLogRetentionMinutes);
+        ReportLog currentLog = reportLog;
+        if (!reportLogEnabled) {
+            if (currentLog != null) {
+                // Threads that still hold the old log find it closed and skip it
+                reportLog = null;
+                currentLog.close();
+                log.info("Report log disabled");
+            }
+        } else if (currentLog != null) {
+            currentLog.configure(segmentBytes, retentionBytes, retentionMillis);
+        } else {
+            Path directory = Paths.get(System.getProperty("karaf.data", "data"), "conquest", "reports");
+            try {
+                reportLog = ReportLog.open(directory, segmentBytes, retentionBytes, retentionMillis,
+                        groupedThreads("onos/conquest", "report-log", log));
+            } catch (IOException e) {
+                log.error("Unable to open report log in {}, reports will not be logged", directory, e);
+            }
+        }
+    }
 
-        var optPipeconf = pipeconfService.getPipeconf(deviceId);
-        if (optPipeconf.isEmpty()) {
-            answer = false;
+    /**
+     * Replaces the ingest pipeline with one matching the current configuration. Reports already queued on the old
+     * pipeline are still processed, before any report is processed by its replacement, so that a flow is never
+     * handled by two threads at once.
+     */
+    private void restartIngestPipeline() {
+        ReportIngestPipeline oldPipeline = ingestPipeline;
+        if (ingestShards > 0) {
+            // The new workers queue reports but wait for the old ones to drain before processing them
+            ingestPipeline = new ReportIngestPipeline(ingestShards, ingestQueueCapacity,
+                    groupedThreads("onos/conquest", "ingest-%d", log), processor::handle, oldPipeline);
+            if (oldPipeline != null) {
+                oldPipeline.shutdown();
+            }
+            log.info("Processing reports on {} shards with queue capacity {}", ingestShards, ingestQueueCapacity);
         } else {
-            PiPipeconf pipeconf = optPipeconf.get();
-            answer = pipeconf.id().id().contains("conquest");
+            if (oldPipeline != null) {
+                // Dispatch threads cannot hold reports back, so drain the old pipeline first; reports submitted to
+                // it meanwhile are dropped and counted
+                oldPipeline.shutdown();
+                oldPipeline.awaitTermination(ReportIngestPipeline.DRAIN_TIMEOUT_MS);
+            }
+            ingestPipeline = null;
+            log.info("Processing reports on the packet dispatch thread");
+        }
+        metrics.registerIngestPipeline(ingestPipeline);
+    }
+
+    /**
+     * Replaces the mitigation backend. The switch happens on the mitigation thread between batches: the old backend
+     * removes its blocks, and every flow that is still blocked is installed again through the new backend.
+     *
+     * @param name name of the new backend
+     */
+    private void switchMitigationBackend(String name) {
+        final MitigationBackend newBackend = MITIGATION_BACKEND_ACL.equals(name)
+                ? new AclMitigationBackend(appId, flowRuleService, this::getConquestDevices)
+                : new PolicyMitigationBackend(policyService);
+        mitigationBackendName = name;
+        mitigationBatcher.execute(() -> {
+            MitigationBackend oldBackend = mitigationBackend;
+            newBackend.activate();
+            mitigationBackend = newBackend;
+            if (oldBackend != null) {
+                oldBackend.deactivate();
+                newBackend.block(blockedFlows.entries().stream()
+                        .filter(entry -> !entry.isMirror())
+                        .collect(Collectors.toList()));
+            }
+            log.info("Installing blocks through the {} backend", name);
+        });
+    }
+
+    private Collection<DeviceId> getConquestDevices() {
+        List<DeviceId> devices = new ArrayList<>();
+        for (Device device : deviceService.getAvailableDevices()) {
+            if (isConquestDevice(device.id())) {
+                devices.add(device.id());
+            }
+        }
+        return devices;
+    }
+
+    private boolean isConquestDevice(DeviceId deviceId) {
+        return cachedConquestDeviceLookups.computeIfAbsent(deviceId, id -> pipeconfService.getPipeconf(id)
+                .map(pipeconf -> pipeconf.id().id().contains("conquest"))
+                .orElse(false));
+    }
+
+    /**
+     * Installs the clone session and the current trigger profile on a device, if it is an available ConQuest
+     * device. Runs on the device event thread.
+     */
+    private void provisionDevice(DeviceId deviceId) {
+        if (!deviceService.isAvailable(deviceId) || !isConquestDevice(deviceId)) {
+            return;
+        }
+        addCloneSessions(deviceId);
+        TriggerProfile profile = triggerProfile;
+        if (profile != null) {
+            addReportTriggers(List.of(deviceId), profile.minQueueDelay, profile.minFlowSizeInQueue);
         }
-        cachedConquestDeviceLookups.put(deviceId, answer);
-        return answer;
+    }
+
+    /**
+     * Removes the clone session and report triggers of a device that left. Runs on the device event thread.
+     */
+    private void teardownDevice(DeviceId deviceId) {
+        log.info("Device {} left, removing its clone sessions and report triggers", deviceId);
+        removeCloneSessions(deviceId);
+        removeReportTriggers(deviceId);
+        cachedConquestDeviceLookups.remove(deviceId);
     }
 
     @Override
     public void blockFlow(ConQuestReport report) {
+        blockFlow(report, FlowKey.of(report), null);
+    }
+
+    /**
+     * Blocks the flow in a report.
+     *
+     * @param report       the report
+     * @param flowKey      the report's flow key
+     * @param sourceDevice the device that sent the report, or null to block the flow everywhere
+     */
+    private void blockFlow(ConQuestReport report, FlowKey flowKey, DeviceId sourceDevice) {
+        BlockedFlowIndex.Entry entry = claimBlock(report, flowKey, sourceDevice);
+        if (entry != null) {
+            mitigationBatcher.block(entry);
+        }
+    }
+
+    @Override
+    public void blockFlows(Collection<ConQuestReport> reports) {
+        for (ConQuestReport report : reports) {
+            blockFlow(report);
+        }
+        mitigationBatcher.flushNow();
+    }
+
+    /**
+     * Decides whether the flow in a report should be blocked, and claims it in the blocked flow index if so.
+     *
+     * @param report       the report
+     * @param flowKey      the report's flow key
+     * @param sourceDevice the device that sent the report, or null
+     * @return the new blocked flow entry, or null if the flow should not be blocked or is already blocked
+     */
+    private BlockedFlowIndex.Entry claimBlock(ConQuestReport report, FlowKey flowKey, DeviceId sourceDevice) {
         if (report.protocol != Constants.PROTO_UDP && report.protocol != Constants.PROTO_TCP) {
             log.info("Not blocking non-TCP/UDP flow that has IP protocol {}", report.protocolInt());
-            return;
+            return null;
         }
 
-        if (blockDuration == 0) {
+        final int duration = blockDuration;
+        if (duration == 0) {
             log.info("Blocking duration is set to 0, not blocking flow");
-            return;
+            return null;
         }
 
-        for (Ip4Prefix prefix : whitelist) {
-            if (prefix.contains(report.srcAddr())) {
+        final PrefixTrie currentWhitelist = whitelist;
+        if (!currentWhitelist.isEmpty()) {
+            metrics.whitelistChecks().mark();
+            Ip4Prefix prefix = currentWhitelist.longestMatch(flowKey.srcIp());
+            if (prefix != null) {
+                metrics.whitelistHits().mark();
                 log.info("Source address in report matches whitelisted prefix {}. Not blocking", prefix);
-                return;
-            } else if (prefix.contains(report.dstAddr())) {
+                return null;
+            }
+            prefix = currentWhitelist.longestMatch(flowKey.dstIp());
+            if (prefix != null) {
+                metrics.whitelistHits().mark();
                 log.info("Destination address in report matches whitelisted prefix {}. Not blocking", prefix);
-                return;
+                return null;
             }
         }
 
-        String blockDurationString = "~forever~";
-        if (blockDuration > 0) {
-            blockDurationString = String.format("for %dms", blockDuration);
+        final long expiryMillis = duration < 0
+                ? BlockedFlowIndex.NEVER : System.currentTimeMillis() + duration;
+        BlockedFlowIndex.Entry entry = blockedFlows.claim(flowKey, report, sourceDevice, expiryMillis);
+        if (entry == null) {
+            log.debug("Flow {} is already blocked, extended its block instead", report);
+            BlockedFlowIndex.Entry existing = blockedFlows.get(flowKey);
+            if (existing != null) {
+                publishExtension(existing);
+            }
+        } else {
+            distributedBlocks.put(flowKey, new BlockRecord(localNodeId, sourceDevice, expiryMillis, report));
         }
+        return entry;
+    }
 
-        var trafficSelectorBuilder = DefaultTrafficSelector.builder()
-                .matchIPProtocol(report.protocol)
-                .matchIPSrc(IpPrefix.valueOf(report.srcIp, 32))
-                .matchIPDst(IpPrefix.valueOf(report.dstIp, 32));
-
-        TpPort srcPort = TpPort.tpPort(report.srcPortInt());
-        TpPort dstPort = TpPort.tpPort(report.dstPortInt());
-
-        if (report.protocol == Constants.PROTO_TCP) {
-            trafficSelectorBuilder
-                    .matchTcpSrc(srcPort)
-                    .matchTcpDst(dstPort);
-        } else if (report.protocol == Constants.PROTO_UDP) {
-            trafficSelectorBuilder
-                    .matchUdpSrc(srcPort)
-                    .matchUdpDst(dstPort);
+    /**
+     * Shares the extended expiry of a block with the other cluster instances, if it moved far enough to matter.
+     * Small extensions are kept local so that a busy flow does not cause a cluster update per report.
+     */
+    private void publishExtension(BlockedFlowIndex.Entry entry) {
+        BlockRecord record = distributedBlocks.get(entry.key());
+        long expiryMillis = entry.expiryMillis();
+        if (record != null && expiryMillis - record.expiryMillis() >= EXTENSION_PUBLISH_MS) {
+            distributedBlocks.put(entry.key(), record.withExpiry(expiryMillis));
         }
-        TrafficSelector trafficSelector = trafficSelectorBuilder.build();
+    }
 
-        log.info("Blocking {} {} in response to report.",
-                trafficSelector, blockDurationString);
+    /**
+     * Applies a batch of mitigation decisions through the current backend, in one pass on the batcher thread rather
+     * than one call at a time from the ingest threads.
+     */
+    private void applyMitigations(List<BlockedFlowIndex.Entry> blocks, List<BlockedFlowIndex.Entry> unblocks) {
+        if (!unblocks.isEmpty()) {
+            for (BlockedFlowIndex.Entry entry : unblocks) {
+                log.info("Unblocking {}", entry.key());
+            }
+            final long startNanos = System.nanoTime();
+            mitigationBackend.unblock(unblocks);
+            metrics.unblockTime().update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+        if (!blocks.isEmpty()) {
+            for (BlockedFlowIndex.Entry entry : blocks) {
+                log.info("Blocking {} {} in response to report.", entry.key(), blockDurationString(entry));
+            }
+            final long startNanos = System.nanoTime();
+            mitigationBackend.block(blocks);
+            metrics.blockInstallTime().update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            for (BlockedFlowIndex.Entry entry : blocks) {
+                expiryScheduler.schedule(entry);
+            }
+        }
+    }
 
-        TrafficMatchId trafficMatchId = policyService.addOrUpdateTrafficMatch(
-                new TrafficMatch(trafficSelector, blockingPolicyId));
+    private String blockDurationString(BlockedFlowIndex.Entry entry) {
+        long expiryMillis = entry.expiryMillis();
+        if (expiryMillis == BlockedFlowIndex.NEVER) {
+            return "~forever~";
+        }
+        return String.format("for %dms", Math.max(0, expiryMillis - System.currentTimeMillis()));
+    }
 
-        blockedFlows.add(report);
-        if (blockDuration < 0)
-            return;
-        unblockingTimer.newTimeout(new UnblockTimerTask(report, trafficMatchId), blockDuration, TimeUnit.MILLISECONDS);
+    /**
+     * Unblocks all flows that expired in one tick of the expiry scheduler, as a single mitigation batch.
+     */
+    private void unblockExpired(List<BlockedFlowIndex.Entry> expired) {
+        metrics.expiredBlocks().mark(expired.size());
+        final long nowMillis = System.currentTimeMillis();
+        for (BlockedFlowIndex.Entry entry : expired) {
+            if (entry.isMirror()) {
+                // The owning instance removes the block itself
+                blockedFlows.forget(entry);
+                continue;
+            }
+            // Once out of the index, new reports for the flow start a fresh block queued behind this unblock
+            if (blockedFlows.removeIfExpired(entry, nowMillis)) {
+                distributedBlocks.remove(entry.key());
+                mitigationBatcher.unblock(entry);
+            } else if (blockedFlows.get(entry.key()) == entry) {
+                // A report extended the block after it came due; expire it at its new time instead
+                expiryScheduler.schedule(entry);
+            }
+        }
+        mitigationBatcher.flushNow();
     }
 
 
     @Override
     public void setBlockDuration(int blockDuration) {
+        distributedBlockDuration.set(blockDuration);
         this.blockDuration = blockDuration;
     }
 
 
     @Override
     public Collection<String> getCurrentlyBlockedFlows() {
-        return blockedFlows.stream()
-                .map(ConQuestReport::toString)
+        return blockedFlows.entries().stream()
+                .map(entry -> entry.report().toString())
                 .collect(Collectors.toCollection(HashSet::new));
     }
 
+    @Override
+    public Map<String, Long> getBlockCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("active", (long) blockedFlows.size());
+        counters.put("installed", blockedFlows.installCount());
+        counters.put("extended", blockedFlows.extensionCount());
+        counters.put("unblocked", blockedFlows.unblockCount());
+        return counters;
+    }
+
+    @Override
+    public Map<String, Long> getIngestCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("owned", ingestPartitioner.ownedCount());
+        counters.put("notMaster", ingestPartitioner.rejectedCount());
+        ingestPartitioner.ownedByDevice().forEach(
+                (deviceId, count) -> counters.put("owned." + deviceId, count));
+        counters.put("admitted", admissionController.admittedCount());
+        counters.put("sampled", admissionController.sampledCount());
+        counters.put("shed", admissionController.shedCount());
+        admissionController.shedByDevice().forEach(
+                (deviceId, count) -> counters.put("shed." + deviceId, count));
+        ReportLog currentLog = reportLog;
+        if (currentLog != null) {
+            counters.put("reportLogDropped", currentLog.droppedCount());
+        }
+        counters.put("triggerAdjustments", triggerController.adjustmentCount());
+        triggerController.levels().forEach(
+                (deviceId, level) -> counters.put("triggerLevel." + deviceId, level));
+        return counters;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return metrics.snapshot();
+    }
+
+    private Map<DeviceId, Long> reportCountsByDevice() {
+        IngestPartitioner partitioner = ingestPartitioner;
+        return partitioner == null ? Map.of() : partitioner.ownedByDevice();
+    }
+
     @Override
     public void whitelistPrefix(Ip4Prefix prefix) {
-        whitelist.add(prefix);
+        whitelistPrefixes(List.of(prefix));
+    }
+
+    @Override
+    public void whitelistPrefixes(Collection<Ip4Prefix> prefixes) {
+        while (true) {
+            Set<Ip4Prefix> current = distributedWhitelist.get();
+            Set<Ip4Prefix> updated = current == null ? ImmutableSet.copyOf(prefixes)
+                    : ImmutableSet.<Ip4Prefix>builder().addAll(current).addAll(prefixes).build();
+            if (distributedWhitelist.compareAndSet(current, updated)) {
+                break;
+            }
+        }
+        rebuildWhitelist();
+    }
+
+    @Override
+    public void replaceWhitelist(Collection<Ip4Prefix> prefixes) {
+        distributedWhitelist.set(ImmutableSet.copyOf(prefixes));
+        rebuildWhitelist();
     }
 
     @Override
     public void clearWhitelist() {
-        whitelist.clear();
+        distributedWhitelist.set(ImmutableSet.of());
+        rebuildWhitelist();
+    }
+
+    /**
+     * Recompiles the local whitelist trie from the distributed whitelist.
+     */
+    private void rebuildWhitelist() {
+        synchronized (whitelistLock) {
+            Set<Ip4Prefix> prefixes = distributedWhitelist.get();
+            whitelist = prefixes == null ? PrefixTrie.EMPTY : PrefixTrie.build(List.copyOf(prefixes));
+        }
+    }
+
+    /**
+     * Rebuilds the whitelist in the background after a change made by any instance. Changes that arrive while a
+     * rebuild is pending are folded into it, so loading many prefixes does not rebuild the trie once per prefix.
+     */
+    private void scheduleWhitelistRebuild() {
+        if (whitelistRebuildPending.compareAndSet(false, true)) {
+            whitelistExecutor.execute(() -> {
+                whitelistRebuildPending.set(false);
+                rebuildWhitelist();
+            });
+        }
+    }
+
+    /**
+     * Builds the distributed primitives shared with the other cluster instances, fills the local caches from them
+     * and starts listening for changes.
+     */
+    private void initDistributedState() {
+        localNodeId = clusterService.getLocalNode().id();
+        whitelistExecutor = Executors.newSingleThreadExecutor(groupedThreads("onos/conquest", "whitelist", log));
+
+        distributedBlocks = storageService.<FlowKey, BlockRecord>eventuallyConsistentMapBuilder()
+                .withName("conquest-blocked-flows")
+                .withSerializer(ConQuestSerializers.NAMESPACE)
+                .withTimestampProvider((key, record) -> new WallClockTimestamp())
+                .build();
+        distributedWhitelist = storageService.<Set<Ip4Prefix>>atomicValueBuilder()
+                .withName("conquest-whitelist")
+                .withSerializer(Serializer.using(KryoNamespaces.API))
+                .build()
+                .asAtomicValue();
+        distributedBlockDuration = storageService.<Integer>atomicValueBuilder()
+                .withName("conquest-block-duration")
+                .withSerializer(Serializer.using(KryoNamespaces.API))
+                .build()
+                .asAtomicValue();
+
+        distributedWhitelist.addListener(whitelistListener);
+        rebuildWhitelist();
+
+        distributedBlockDuration.addListener(blockDurationListener);
+        distributedBlockDuration.compareAndSet(null, Constants.DEFAULT_BLOCK_DURATION_MS);
+        Integer duration = distributedBlockDuration.get();
+        if (duration != null) {
+            blockDuration = duration;
+        }
+
+        distributedBlocks.addListener(blockListener);
+        for (Map.Entry<FlowKey, BlockRecord> block : distributedBlocks.entrySet()) {
+            if (localNodeId.equals(block.getValue().owner())) {
+                // Left behind by an earlier run of this instance, whose blocks are gone
+                distributedBlocks.remove(block.getKey());
+            } else {
+                mirrorBlock(block.getKey(), block.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stops listening to the distributed primitives and withdraws the blocks owned by this instance.
+     */
+    private void releaseDistributedState() {
+        distributedBlocks.removeListener(blockListener);
+        distributedWhitelist.removeListener(whitelistListener);
+        distributedBlockDuration.removeListener(blockDurationListener);
+        whitelistExecutor.shutdownNow();
+        for (BlockedFlowIndex.Entry entry : blockedFlows.entries()) {
+            if (!entry.isMirror()) {
+                distributedBlocks.remove(entry.key());
+            }
+        }
+    }
+
+    private void mirrorBlock(FlowKey key, BlockRecord record) {
+        BlockedFlowIndex.Entry entry = blockedFlows.mirror(key, record.report(), record.device(),
+                record.expiryMillis());
+        if (entry != null) {
+            expiryScheduler.schedule(entry);
+        }
     }
 
     @Override
     public Collection<Ip4Prefix> readWhitelist() {
-        return List.copyOf(whitelist);
+        return whitelist.prefixes();
     }
 
     private void cleanUp() {
@@ -288,7 +1060,6 @@ public class ConQuest implements ConQuestService {
 
 
     private void addCloneSessions(DeviceId deviceId) {
-        log.info("Adding clone session {} to device {}", Constants.MIRROR_SESSION_ID, deviceId);
         final GroupDescription cloneGroup = ConQuestUtils.buildCloneGroup(
                 appId,
                 deviceId,
@@ -296,17 +1067,12 @@ public class ConQuest implements ConQuestService {
                 // Ports where to clone the packet.
                 // Just controller in this case.
                 Collections.singleton(PortNumber.CONTROLLER));
-        groupService.addGroup(cloneGroup);
-    }
-
-
-    private void addAllCloneSessions() {
-        for (Device device : deviceService.getAvailableDevices()) {
-            if (isConquestDevice(device.id())) {
-                addCloneSessions(device.id());
-            }
+        if (groupService.getGroup(deviceId, cloneGroup.appCookie()) != null) {
+            log.debug("Clone session {} already present on device {}", Constants.MIRROR_SESSION_ID, deviceId);
+            return;
         }
-        log.info("Added all clone sessions.");
+        log.info("Adding clone session {} to device {}", Constants.MIRROR_SESSION_ID, deviceId);
+        groupService.addGroup(cloneGroup);
     }
 
     private void removeCloneSessions(DeviceId deviceId) {
@@ -324,39 +1090,91 @@ public class ConQuest implements ConQuestService {
     }
 
     @Override
-    public void removeReportTriggers(DeviceId deviceId) {
+    public CompletableFuture<Void> removeReportTriggers(DeviceId deviceId) {
+        return removeReportTriggers(deviceId::equals);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAllReportTriggers() {
+        triggerProfile = null;
+        return removeReportTriggers(deviceId -> true);
+    }
+
+    private CompletableFuture<Void> removeReportTriggers(Predicate<DeviceId> devices) {
+        triggerController.remove(devices);
+        Map<DeviceId, FlowRuleOperations.Builder> ops = new HashMap<>();
         int count = 0;
-        for (FlowEntry installedEntry : flowRuleService.getFlowEntriesById(appId)) {
-            if (installedEntry.deviceId().equals(deviceId)
-                    && installedEntry.table().equals(Constants.REPORT_TRIGGER_TABLE)) {
-                flowRuleService.removeFlowRules(installedEntry);
+        for (DeviceId deviceId : triggerRules.devices()) {
+            if (!devices.test(deviceId)) {
+                continue;
+            }
+            FlowRuleOperations.Builder deviceOps = FlowRuleOperations.builder();
+            for (FlowRule rule : triggerRules.removeDevice(deviceId)) {
+                deviceOps.remove(rule);
                 count++;
             }
+            ops.put(deviceId, deviceOps);
         }
-        log.info("Removed {} flow rules from device {}", count, deviceId);
+        log.info("Removing {} trigger rules from {} devices", count, ops.size());
+        return applyPerDevice(ops, "remove report triggers");
     }
 
     @Override
-    public void removeAllReportTriggers() {
-        int count = 0;
-        for (FlowEntry installedEntry : flowRuleService.getFlowEntriesById(appId)) {
-            if (installedEntry.table().equals(Constants.REPORT_TRIGGER_TABLE)) {
-                flowRuleService.removeFlowRules(installedEntry);
-                count++;
-            }
+    public List<ConQuestReport> getReceivedReports() {
+        return currentReports().snapshot();
+    }
+
+    @Override
+    public List<ConQuestReport> queryReports(ReportQuery query) {
+        return currentReports().query(query);
+    }
+
+    @Override
+    public ReportCursor openReportCursor() {
+        return new ReportCursor(currentReports());
+    }
+
+    /**
+     * Returns the report store after releasing the reports that have aged past the retention time.
+     */
+    private ReportRingBuffer currentReports() {
+        ReportRingBuffer reports = receivedReports;
+        reports.expire(reportClock.millis());
+        return reports;
+    }
+
+    @Override
+    public long getEvictedReportCount() {
+        ReportRingBuffer reports = receivedReports;
+        return reports.evictedCount() + reports.lappedCount();
+    }
+
+    @Override
+    public List<ConQuestReport> getLoggedReports(long fromMillis, long toMillis, int limit) {
+        ReportLog currentLog = reportLog;
+        if (currentLog == null) {
+            return List.of();
         }
-        log.info("Removed {} flow rules from the network", count);
+        List<ConQuestReport> reports = new ArrayList<>();
+        currentLog.read(fromMillis, toMillis, limit, reports::add);
+        return reports;
+    }
 
+    @Override
+    public List<HeavyHitter> getHeavyHitters(HeavyHitter.Dimension dimension, HeavyHitter.Metric metric, int count) {
+        return heavyHitters.top(dimension, metric, count);
     }
 
     @Override
-    public List<ConQuestReport> getReceivedReports() {
-        return List.copyOf(receivedReports);
+    public List<FlowStats> getFlowStats() {
+        return flowTable.flows();
     }
 
     @Override
     public void clearReceivedReports() {
         receivedReports.clear();
+        heavyHitters.clear();
+        flowTable.clear();
     }
 
     private Set<FlowRule> buildReportTriggerRules(DeviceId deviceId, int minQueueDelay, int minFlowSizeInQueue) {
@@ -391,21 +1209,89 @@ public class ConQuest implements ConQuestService {
     }
 
     @Override
-    public void addReportTrigger(DeviceId deviceId, int minQueueDelay, int minFlowSizeInQueue) {
-        for (FlowRule rule : buildReportTriggerRules(deviceId, minQueueDelay, minFlowSizeInQueue)) {
-            log.info("Installing trigger rule {}", rule);
-            flowRuleService.applyFlowRules(rule);
-        }
-        log.info("Added report trigger flow rules for device {}", deviceId);
+    public CompletableFuture<Void> addReportTrigger(DeviceId deviceId, int minQueueDelay, int minFlowSizeInQueue) {
+        return addReportTriggers(List.of(deviceId), minQueueDelay, minFlowSizeInQueue);
     }
 
     @Override
-    public void addReportTriggerEverywhere(int minQueueDelay, int minFlowSizeInQueue) {
-        for (Device device : deviceService.getAvailableDevices()) {
-            if (isConquestDevice(device.id())) {
-                addReportTrigger(device.id(), minQueueDelay, minFlowSizeInQueue);
+    public CompletableFuture<Void> addReportTriggerEverywhere(int minQueueDelay, int minFlowSizeInQueue) {
+        triggerProfile = new TriggerProfile(minQueueDelay, minFlowSizeInQueue);
+        return addReportTriggers(getConquestDevices(), minQueueDelay, minFlowSizeInQueue);
+    }
+
+    /**
+     * Installs report triggers on devices. The thresholds become the starting point from which the trigger
+     * controller adjusts each device's thresholds to its report rate budget.
+     */
+    private CompletableFuture<Void> addReportTriggers(Collection<DeviceId> deviceIds, int minQueueDelay,
+                                                     int minFlowSizeInQueue) {
+        log.info("Adding report trigger flow rules for devices {}", deviceIds);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(deviceIds.size());
+        for (DeviceId deviceId : deviceIds) {
+            futures.add(triggerController.install(deviceId, minQueueDelay, minFlowSizeInQueue));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Installs report triggers with one flow rule batch per device. Each batch first removes the device's triggers
+     * that the new ones replace. All batches are submitted before any of them completes, so devices are
+     * provisioned concurrently.
+     */
+    private CompletableFuture<Void> installReportTriggers(Collection<DeviceId> deviceIds, int minQueueDelay,
+                                                         int minFlowSizeInQueue) {
+        Map<DeviceId, FlowRuleOperations.Builder> ops = new HashMap<>();
+        for (DeviceId deviceId : deviceIds) {
+            Set<FlowRule> newRules = buildReportTriggerRules(deviceId, minQueueDelay, minFlowSizeInQueue);
+            Set<FlowId> newRuleIds = newRules.stream().map(FlowRule::id).collect(Collectors.toSet());
+            FlowRuleOperations.Builder deviceOps = FlowRuleOperations.builder();
+            for (FlowRule staleRule : triggerRules.rules(deviceId)) {
+                if (!newRuleIds.contains(staleRule.id())) {
+                    log.debug("Replacing trigger rule {}", staleRule);
+                    triggerRules.remove(staleRule);
+                    deviceOps.remove(staleRule);
+                }
+            }
+            deviceOps.newStage();
+            for (FlowRule rule : newRules) {
+                log.debug("Installing trigger rule {}", rule);
+                triggerRules.add(rule);
+                deviceOps.add(rule);
             }
+            ops.put(deviceId, deviceOps);
         }
+        return applyPerDevice(ops, "add report triggers");
+    }
+
+    /**
+     * Submits one flow rule batch per device.
+     *
+     * @param ops         the batch for each device
+     * @param description what the batches do, for error messages
+     * @return a future completed once every device has confirmed its batch, or completed exceptionally if any
+     * batch failed
+     */
+    private CompletableFuture<Void> applyPerDevice(Map<DeviceId, FlowRuleOperations.Builder> ops,
+                                                   String description) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(ops.size());
+        ops.forEach((deviceId, deviceOps) -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.add(future);
+            flowRuleService.apply(deviceOps.build(new FlowRuleOperationsContext() {
+                @Override
+                public void onSuccess(FlowRuleOperations completedOps) {
+                    future.complete(null);
+                }
+
+                @Override
+                public void onError(FlowRuleOperations failedOps) {
+                    log.warn("Failed to {} on {}: {}", description, deviceId, failedOps);
+                    future.completeExceptionally(new IllegalStateException(
+                            String.format("Failed to %s on %s", description, deviceId)));
+                }
+            }));
+        });
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
     }
 
 
@@ -420,8 +1306,97 @@ public class ConQuest implements ConQuestService {
 
         private final Logger log = LoggerFactory.getLogger(getClass());
 
+        private final ThreadLocal<ConQuestHeader> headers = ThreadLocal.withInitial(ConQuestHeader::new);
+
         @Override
         public void process(PacketContext context) {
+            // Only the header is checked here; the rest of the work happens on a shard, or in handle()
+            ConQuestHeader header = headers.get();
+            if (!header.wrap(context.inPacket().unparsed())) {
+                logIgnoredPacket(context);
+                return;
+            }
+            DeviceId sourceDevice = context.inPacket().receivedFrom().deviceId();
+            if (!ingestPartitioner.accept(sourceDevice)) {
+                // Another instance is master of the device and processes its reports
+                return;
+            }
+            if (!admissionController.admit(sourceDevice)) {
+                // The device is over its report rate and this report was not sampled
+                return;
+            }
+            ReportIngestPipeline pipeline = ingestPipeline;
+            if (pipeline == null) {
+                // Dispatch threads share the first shard of the per-shard statistics
+                handle(context, 0);
+                return;
+            }
+            int flowHash = ReportIngestPipeline.flowHash(header.srcIp(), header.dstIp(),
+                    header.srcPort(), header.dstPort(), header.protocol());
+            if (!pipeline.submit(flowHash, context) && log.isDebugEnabled()) {
+                log.debug("Ingest queue full or stopped, dropped report from {}",
+                        context.inPacket().receivedFrom().deviceId());
+            }
+        }
+
+        void handle(PacketContext context, int shard) {
+            // Timers lock on update, so only a sample of reports is timed; 0 marks an untimed report
+            final long startNanos = metrics.sampleReportTiming() ? System.nanoTime() : 0;
+            if (legacyDecode) {
+                processLegacy(context, shard, startNanos);
+            } else {
+                processFlyweight(context, shard, startNanos);
+            }
+            if (startNanos != 0) {
+                metrics.processTime().update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void logIgnoredPacket(PacketContext context) {
+            if (log.isDebugEnabled()) {
+                log.debug("Received packet-in not for us from {}, EtherType was: {}",
+                        context.inPacket().receivedFrom().deviceId(),
+                        context.inPacket().parsed().getEtherType());
+            }
+        }
+
+        /**
+         * Decodes the report in place from the unparsed frame. No copy of the frame is made and no per-field
+         * objects are created until the report is handed to the blocking logic.
+         */
+        private void processFlyweight(PacketContext context, int shard, long startNanos) {
+            ConQuestHeader header = headers.get();
+            if (!header.wrap(context.inPacket().unparsed())) {
+                logIgnoredPacket(context);
+                return;
+            }
+            long timeReceived = reportClock.millis();
+            receivedReports.append(header.srcIp(), header.dstIp(), header.srcPort(), header.dstPort(),
+                    header.protocol(), header.queueSize(), timeReceived);
+            // One flow key per report, shared by the heavy hitter sketches and the blocking logic
+            FlowKey flowKey = FlowKey.of(header.srcIp(), header.dstIp(), header.srcPort(), header.dstPort(),
+                    header.protocol());
+            heavyHitters.record(shard, flowKey, header.queueSize());
+            flowTable.record(shard, header.srcIp(), header.dstIp(), header.srcPort(), header.dstPort(),
+                    header.protocol(), header.queueSize(), timeReceived);
+            ReportLog currentLog = reportLog;
+            if (currentLog != null) {
+                currentLog.append(header.srcIp(), header.dstIp(), header.srcPort(), header.dstPort(),
+                        header.protocol(), header.queueSize(), timeReceived);
+            }
+            ConQuestReport report = header.toReport(timeReceived);
+            metrics.reports().mark();
+            if (startNanos != 0) {
+                metrics.decodeTime().update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Received ConQuest report from {}: {}",
+                        context.inPacket().receivedFrom().deviceId(), report);
+            }
+            blockFlow(report, flowKey, context.inPacket().receivedFrom().deviceId());
+        }
+
+        private void processLegacy(PacketContext context, int shard, long startNanos) {
             Ethernet packet = context.inPacket().parsed();
             DeviceId sourceDevice = context.inPacket().receivedFrom().deviceId();
 
@@ -441,16 +1416,30 @@ public class ConQuest implements ConQuestService {
                 short srcPort = bb.getShort();
                 short dstPort = bb.getShort();
                 byte protocol = bb.get();
-                ImmutableByteSequence queueSize = ImmutableByteSequence.copyFrom(bb.getInt());
-
-                LocalTime timeReceived = LocalTime.now();
-
-                ConQuestReport report = new ConQuestReport(srcIp, dstIp, srcPort, dstPort, protocol, queueSize,
-                        LocalTime.now());
-
-                receivedReports.add(report);
+                int rawQueueSize = bb.getInt();
+
+                long timeReceived = reportClock.millis();
+
+                ConQuestReport report = new ConQuestReport(srcIp.toInt(), dstIp.toInt(), srcPort, dstPort, protocol,
+                        rawQueueSize, timeReceived);
+
+                receivedReports.append(srcIp.toInt(), dstIp.toInt(), srcPort, dstPort, protocol,
+                        rawQueueSize, timeReceived);
+                FlowKey flowKey = FlowKey.of(report);
+                heavyHitters.record(shard, flowKey, rawQueueSize);
+                flowTable.record(shard, srcIp.toInt(), dstIp.toInt(), srcPort, dstPort, protocol, rawQueueSize,
+                        timeReceived);
+                ReportLog currentLog = reportLog;
+                if (currentLog != null) {
+                    currentLog.append(srcIp.toInt(), dstIp.toInt(), srcPort, dstPort, protocol,
+                            rawQueueSize, timeReceived);
+                }
+                metrics.reports().mark();
+                if (startNanos != 0) {
+                    metrics.decodeTime().update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                }
                 log.info("Received ConQuest report from {}: {}", sourceDevice, report);
-                blockFlow(report);
+                blockFlow(report, flowKey, sourceDevice);
             //} else if (log.isDebugEnabled()) {
             } else  {
                 log.info("Received packet-in that wasn't for us. Do nothing.");
@@ -464,20 +1453,126 @@ public class ConQuest implements ConQuestService {
     }
 
 
-    private final class UnblockTimerTask implements TimerTask {
-        ConQuestReport blockedFlowReport;
-        TrafficMatchId blockedTrafficMatchId;
+    /**
+     * Report trigger thresholds.
+     */
+    private static final class TriggerProfile {
+        private final int minQueueDelay;
+        private final int minFlowSizeInQueue;
 
-        UnblockTimerTask(ConQuestReport blockedFlowReport, TrafficMatchId blockedTrafficMatchId) {
-            this.blockedFlowReport = blockedFlowReport;
-            this.blockedTrafficMatchId = blockedTrafficMatchId;
+        private TriggerProfile(int minQueueDelay, int minFlowSizeInQueue) {
+            this.minQueueDelay = minQueueDelay;
+            this.minFlowSizeInQueue = minFlowSizeInQueue;
         }
+    }
 
+
+    private final class InternalDeviceListener implements DeviceListener {
         @Override
-        public void run(Timeout timeout) {
-            log.info("Unblocking {}", blockedFlowReport);
-            policyService.removeTrafficMatch(blockedTrafficMatchId);
-            blockedFlows.remove(this.blockedFlowReport);
+        public void event(DeviceEvent event) {
+            final DeviceId deviceId = event.subject().id();
+            switch (event.type()) {
+                case DEVICE_ADDED:
+                case DEVICE_AVAILABILITY_CHANGED:
+                    if (deviceService.isAvailable(deviceId)) {
+                        deviceEventExecutor.execute(() -> provisionDevice(deviceId));
+                    } else {
+                        deviceEventExecutor.execute(() -> teardownDevice(deviceId));
+                    }
+                    break;
+                case DEVICE_REMOVED:
+                    ingestPartitioner.deviceRemoved(deviceId);
+                    admissionController.deviceRemoved(deviceId);
+                    deviceEventExecutor.execute(() -> teardownDevice(deviceId));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+
+    private final class InternalPipeconfWatchdogListener implements PiPipeconfWatchdogListener {
+        @Override
+        public void event(PiPipeconfWatchdogEvent event) {
+            final DeviceId deviceId = event.subject();
+            switch (event.type()) {
+                case PIPELINE_READY:
+                    deviceEventExecutor.execute(() -> {
+                        // The device may have been given a different pipeconf
+                        boolean wasConquestDevice = Boolean.TRUE.equals(cachedConquestDeviceLookups.remove(deviceId));
+                        if (isConquestDevice(deviceId)) {
+                            provisionDevice(deviceId);
+                        } else if (wasConquestDevice) {
+                            // The old pipeline took its trigger rules with it
+                            triggerRules.removeDevice(deviceId);
+                        }
+                    });
+                    break;
+                case PIPELINE_UNKNOWN:
+                    cachedConquestDeviceLookups.remove(deviceId);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+
+    private final class InternalMastershipListener implements MastershipListener {
+        @Override
+        public void event(MastershipEvent event) {
+            if (event.type() == MastershipEvent.Type.MASTER_CHANGED) {
+                ingestPartitioner.mastershipChanged(event.subject(),
+                        localNodeId.equals(event.roleInfo().master()));
+            }
+        }
+    }
+
+
+    private final class InternalBlockListener implements EventuallyConsistentMapListener<FlowKey, BlockRecord> {
+        @Override
+        public void event(EventuallyConsistentMapEvent<FlowKey, BlockRecord> event) {
+            BlockedFlowIndex.Entry entry = blockedFlows.get(event.key());
+            switch (event.type()) {
+                case PUT:
+                    if (entry != null) {
+                        blockedFlows.extend(entry, event.value().expiryMillis());
+                    } else if (!localNodeId.equals(event.value().owner())) {
+                        mirrorBlock(event.key(), event.value());
+                    }
+                    break;
+                case REMOVE:
+                    if (entry != null && entry.isMirror()) {
+                        blockedFlows.forget(entry);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+
+    private final class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public boolean isRelevant(FlowRuleEvent event) {
+            FlowRule rule = event.subject();
+            return rule.appId() == appId.id() && rule.table().equals(Constants.REPORT_TRIGGER_TABLE);
+        }
+
+        @Override
+        public void event(FlowRuleEvent event) {
+            switch (event.type()) {
+                case RULE_ADDED:
+                    triggerRules.add(event.subject());
+                    break;
+                case RULE_REMOVED:
+                    triggerRules.remove(event.subject());
+                    break;
+                default:
+                    break;
+            }
         }
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.packet.Ethernet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight view of the ConQuest report header carried by a packet-in frame.
+ * <p>
+ * The header fields are read on demand straight out of the raw frame at fixed offsets, so decoding a report neither
+ * copies the frame nor allocates per-field objects. A single instance is meant to be reused by one thread for many
+ * frames via {@link #wrap(ByteBuffer)}.
+ */
+public final class ConQuestHeader {
+
+    /** Length of the ConQuest header in bytes. */
+    public static final int LENGTH = 4 + 4 + 2 + 2 + 1 + 4;
+
+    private static final int ETHERTYPE_OFFSET = 12;
+    private static final int VLAN_TAG_LENGTH = 4;
+
+    private static final int SRC_IP_OFFSET = 0;
+    private static final int DST_IP_OFFSET = 4;
+    private static final int SRC_PORT_OFFSET = 8;
+    private static final int DST_PORT_OFFSET = 10;
+    private static final int PROTOCOL_OFFSET = 12;
+    private static final int QUEUE_SIZE_OFFSET = 13;
+
+    private ByteBuffer frame;
+    private int offset;
+
+    /**
+     * Points this view at the ConQuest header of the given Ethernet frame. The frame's position and limit are
+     * left untouched.
+     *
+     * @param frame raw Ethernet frame, starting at its current position
+     * @return true if the frame carries a complete ConQuest header, false otherwise
+     */
+    public boolean wrap(ByteBuffer frame) {
+        final int limit = frame.limit();
+        int etherTypeOffset = frame.position() + ETHERTYPE_OFFSET;
+        if (etherTypeOffset + Short.BYTES > limit) {
+            return false;
+        }
+        short etherType = frame.getShort(etherTypeOffset);
+        while (etherType == Ethernet.TYPE_VLAN || etherType == Ethernet.TYPE_QINQ) {
+            etherTypeOffset += VLAN_TAG_LENGTH;
+            if (etherTypeOffset + Short.BYTES > limit) {
+                return false;
+            }
+            etherType = frame.getShort(etherTypeOffset);
+        }
+        final int headerOffset = etherTypeOffset + Short.BYTES;
+        if (etherType != Constants.CONQUEST_ETHERTYPE || headerOffset + LENGTH > limit) {
+            return false;
+        }
+        this.frame = frame;
+        this.offset = headerOffset;
+        return true;
+    }
+
+    public int srcIp() {
+        return frame.getInt(offset + SRC_IP_OFFSET);
+    }
+
+    public int dstIp() {
+        return frame.getInt(offset + DST_IP_OFFSET);
+    }
+
+    public short srcPort() {
+        return frame.getShort(offset + SRC_PORT_OFFSET);
+    }
+
+    public short dstPort() {
+        return frame.getShort(offset + DST_PORT_OFFSET);
+    }
+
+    public byte protocol() {
+        return frame.get(offset + PROTOCOL_OFFSET);
+    }
+
+    public int queueSize() {
+        return frame.getInt(offset + QUEUE_SIZE_OFFSET);
+    }
+
+    /**
+     * Materializes the wrapped header as a report object.
+     *
+     * @param timestampMillis epoch time in milliseconds at which the report was received
+     * @return a new report
+     */
+    public ConQuestReport toReport(long timestampMillis) {
+        return new ConQuestReport(srcIp(), dstIp(), srcPort(), dstPort(), protocol(), queueSize(), timestampMillis);
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+import org.onlab.metrics.MetricsComponent;
+import org.onlab.metrics.MetricsFeature;
+import org.onlab.metrics.MetricsService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Metrics published by the ConQuest app through the ONOS metrics service.
+ * <p>
+ * Meters count into striped adders, so the ingest threads can mark them on every report without contending with each
+ * other. Timers and histograms keep their samples in exponentially decaying reservoirs, which take a lock on every
+ * update, so the per-report timers are only updated for a random sample of reports: their counts and rates are those
+ * of the sample, and the report meter gives the full count.
+ */
+final class ConQuestMetrics {
+
+    private static final String COMPONENT_NAME = "ConQuest";
+    // One in this many reports is timed
+    private static final int REPORT_TIMING_SAMPLE_ONE_IN = 64;
+
+    private final MetricsService metricsService;
+    private final MetricsComponent component;
+    private final MetricsFeature ingestFeature;
+    private final MetricsFeature mitigationFeature;
+
+    private final Meter reports;
+    private final Timer decodeTime;
+    private final Timer processTime;
+    private final Meter whitelistChecks;
+    private final Meter whitelistHits;
+
+    private final Histogram mitigationBatchSize;
+    private final Timer mitigationBatchLatency;
+    private final Timer blockInstallTime;
+    private final Timer unblockTime;
+    private final Histogram unblockLag;
+    private final Meter expiredBlocks;
+
+    // Names of the registered metrics, so they can be removed again
+    private final Map<MetricsFeature, List<String>> registered = new HashMap<>();
+    // Every metric currently published, keyed by feature and name
+    private final Map<String, Metric> published = new LinkedHashMap<>();
+    // Per-shard gauges of the current ingest pipeline, replaced together with the pipeline
+    private final List<String> shardGauges = new ArrayList<>();
+
+    ConQuestMetrics(MetricsService metricsService) {
+        this.metricsService = metricsService;
+        this.component = metricsService.registerComponent(COMPONENT_NAME);
+        this.ingestFeature = component.registerFeature("Ingest");
+        this.mitigationFeature = component.registerFeature("Mitigation");
+
+        this.reports = track(ingestFeature, "reports", metricsService.createMeter(component, ingestFeature, "reports"));
+        this.decodeTime = track(ingestFeature, "decodeTime",
+                                metricsService.createTimer(component, ingestFeature, "decodeTime"));
+        this.processTime = track(ingestFeature, "processTime",
+                                 metricsService.createTimer(component, ingestFeature, "processTime"));
+        this.whitelistChecks = track(ingestFeature, "whitelistChecks",
+                                     metricsService.createMeter(component, ingestFeature, "whitelistChecks"));
+        this.whitelistHits = track(ingestFeature, "whitelistHits",
+                                   metricsService.createMeter(component, ingestFeature, "whitelistHits"));
+        registerGauge(ingestFeature, "whitelistHitRatio", (Gauge<Double>) () -> {
+            long checks = whitelistChecks.getCount();
+            return checks == 0 ? 0.0 : (double) whitelistHits.getCount() / checks;
+        });
+
+        this.mitigationBatchSize = track(mitigationFeature, "batchSize",
+                                         metricsService.createHistogram(component, mitigationFeature, "batchSize"));
+        this.mitigationBatchLatency = track(mitigationFeature, "batchLatency",
+                                            metricsService.createTimer(component, mitigationFeature, "batchLatency"));
+        this.blockInstallTime = track(mitigationFeature, "blockInstallTime",
+                                      metricsService.createTimer(component, mitigationFeature, "blockInstallTime"));
+        this.unblockTime = track(mitigationFeature, "unblockTime",
+                                 metricsService.createTimer(component, mitigationFeature, "unblockTime"));
+        this.unblockLag = track(mitigationFeature, "unblockLagMs",
+                                metricsService.createHistogram(component, mitigationFeature, "unblockLagMs"));
+        this.expiredBlocks = track(mitigationFeature, "expiredBlocks",
+                                   metricsService.createMeter(component, mitigationFeature, "expiredBlocks"));
+    }
+
+    /**
+     * Reports processed by this instance.
+     *
+     * @return report meter
+     */
+    Meter reports() {
+        return reports;
+    }
+
+    /**
+     * Decides at random whether to time the processing of a report.
+     *
+     * @return true if the report should be recorded in the decode and processing timers
+     */
+    boolean sampleReportTiming() {
+        return ThreadLocalRandom.current().nextInt(REPORT_TIMING_SAMPLE_ONE_IN) == 0;
+    }
+
+    /**
+     * Time to decode a report and store it, before deciding whether to block its flow. Only a sample of reports is
+     * timed.
+     *
+     * @return decode timer
+     */
+    Timer decodeTime() {
+        return decodeTime;
+    }
+
+    /**
+     * Time to fully process a report, from decoding it to queueing a block decision. Only a sample of reports is
+     * timed.
+     *
+     * @return processing timer
+     */
+    Timer processTime() {
+        return processTime;
+    }
+
+    /**
+     * Reports whose flow was checked against a non-empty whitelist.
+     *
+     * @return whitelist check meter
+     */
+    Meter whitelistChecks() {
+        return whitelistChecks;
+    }
+
+    /**
+     * Reports whose flow was exempted from blocking by the whitelist.
+     *
+     * @return whitelist hit meter
+     */
+    Meter whitelistHits() {
+        return whitelistHits;
+    }
+
+    /**
+     * Number of block and unblock decisions in each submitted mitigation batch.
+     *
+     * @return batch size histogram
+     */
+    Histogram mitigationBatchSize() {
+        return mitigationBatchSize;
+    }
+
+    /**
+     * Time from the first decision of a mitigation batch until the batch was applied.
+     *
+     * @return batch latency timer
+     */
+    Timer mitigationBatchLatency() {
+        return mitigationBatchLatency;
+    }
+
+    /**
+     * Time the mitigation backend takes to install a batch of blocks.
+     *
+     * @return block install timer
+     */
+    Timer blockInstallTime() {
+        return blockInstallTime;
+    }
+
+    /**
+     * Time the mitigation backend takes to remove a batch of blocks.
+     *
+     * @return unblock timer
+     */
+    Timer unblockTime() {
+        return unblockTime;
+    }
+
+    /**
+     * Blocks released by the expiry scheduler.
+     *
+     * @return expired block meter
+     */
+    Meter expiredBlocks() {
+        return expiredBlocks;
+    }
+
+    /**
+     * Milliseconds between the time a block was due to expire and the time the expiry scheduler released it.
+     *
+     * @return unblock lag histogram
+     */
+    Histogram unblockLag() {
+        return unblockLag;
+    }
+
+    /**
+     * Publishes a gauge of the blocks waiting to expire.
+     *
+     * @param scheduler the expiry scheduler
+     */
+    synchronized void registerExpiryScheduler(ExpiryScheduler scheduler) {
+        registerGauge(mitigationFeature, "scheduledUnblocks", () -> (long) scheduler.scheduledCount());
+    }
+
+    /**
+     * Publishes gauges for the blocked flow index.
+     *
+     * @param index the index of blocked flows
+     */
+    synchronized void registerBlockedFlowIndex(BlockedFlowIndex index) {
+        registerGauge(mitigationFeature, "activeBlocks", () -> (long) index.size());
+        registerGauge(mitigationFeature, "blocksInstalled", index::installCount);
+        registerGauge(mitigationFeature, "blocksExtended", index::extensionCount);
+        registerGauge(mitigationFeature, "unblocks", index::unblockCount);
+    }
+
+    /**
+     * Publishes gauges of the reports this instance owned and those it left to other instances.
+     *
+     * @param partitioner the ingest partitioner
+     */
+    synchronized void registerIngestPartitioner(IngestPartitioner partitioner) {
+        registerGauge(ingestFeature, "owned", partitioner::ownedCount);
+        registerGauge(ingestFeature, "notMaster", partitioner::rejectedCount);
+    }
+
+    /**
+     * Publishes gauges of the reports admitted, sampled and shed by admission control.
+     *
+     * @param controller the admission controller
+     */
+    synchronized void registerAdmissionController(AdmissionController controller) {
+        registerGauge(ingestFeature, "admitted", controller::admittedCount);
+        registerGauge(ingestFeature, "sampled", controller::sampledCount);
+        registerGauge(ingestFeature, "shed", controller::shedCount);
+    }
+
+    /**
+     * Publishes queue depth and drop gauges for each shard of an ingest pipeline, replacing those of any
+     * previously registered pipeline.
+     *
+     * @param pipeline the active ingest pipeline, or null if reports are processed inline
+     */
+    synchronized void registerIngestPipeline(ReportIngestPipeline pipeline) {
+        removeShardGauges();
+        if (pipeline == null) {
+            return;
+        }
+        for (int i = 0; i < pipeline.shardCount(); i++) {
+            final int shard = i;
+            String depthName = "shard" + shard + ".queueDepth";
+            String droppedName = "shard" + shard + ".dropped";
+            Gauge<Long> depth = () -> (long) pipeline.queueDepth(shard);
+            Gauge<Long> dropped = () -> pipeline.droppedCount(shard);
+            metricsService.registerMetric(component, ingestFeature, depthName, depth);
+            metricsService.registerMetric(component, ingestFeature, droppedName, dropped);
+            published.put(key(ingestFeature, depthName), depth);
+            published.put(key(ingestFeature, droppedName), dropped);
+            shardGauges.add(depthName);
+            shardGauges.add(droppedName);
+        }
+    }
+
+    /**
+     * Returns every metric the app currently publishes.
+     *
+     * @return metrics keyed by feature and name, such as {@code Ingest.reports}
+     */
+    synchronized Map<String, Metric> snapshot() {
+        return new LinkedHashMap<>(published);
+    }
+
+    /**
+     * Removes all metrics published by the app.
+     */
+    synchronized void unregisterAll() {
+        removeShardGauges();
+        registered.forEach((feature, names) -> names.forEach(
+                name -> metricsService.removeMetric(component, feature, name)));
+        registered.clear();
+        published.clear();
+    }
+
+    private void registerGauge(MetricsFeature feature, String name, Gauge<?> gauge) {
+        metricsService.registerMetric(component, feature, name, gauge);
+        track(feature, name, gauge);
+    }
+
+    private <T extends Metric> T track(MetricsFeature feature, String name, T metric) {
+        registered.computeIfAbsent(feature, f -> new ArrayList<>()).add(name);
+        published.put(key(feature, name), metric);
+        return metric;
+    }
+
+    private void removeShardGauges() {
+        for (String name : shardGauges) {
+            metricsService.removeMetric(component, ingestFeature, name);
+            published.remove(key(ingestFeature, name));
+        }
+        shardGauges.clear();
+    }
+
+    private static String key(MetricsFeature feature, String name) {
+        return feature.getName() + "." + name;
+    }
+}
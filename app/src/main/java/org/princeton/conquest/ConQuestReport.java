@@ -1,90 +1,126 @@
 package org.princeton.conquest;
 
 import org.onlab.packet.Ip4Address;
-import org.onlab.util.ImmutableByteSequence;
 
 import java.text.DecimalFormat;
-import java.time.LocalTime;
-
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * A received ConQuest report, packed into primitives.
+ * <p>
+ * The 5-tuple is held the same way as in {@link FlowKey}, so a report costs a single small object. Address and
+ * display views are only created when asked for. Reports are values: two reports are equal if they describe the same
+ * flow, queue size and receive time.
+ */
 public class ConQuestReport {
 
-    Ip4Address srcIp;
-    Ip4Address dstIp;
-    short srcPort;
-    short dstPort;
-    byte protocol;
-    ImmutableByteSequence queueSize;
-    LocalTime reportTime;
+    // Source address in the high word, destination address in the low word
+    final long addresses;
+    // Source port in the high half, destination port in the low half
+    final int ports;
+    final byte protocol;
+    final int queueSize;
+    final long reportTimeMillis;
 
     /**
      * Constructs ConQuest Report data
      */
     public ConQuestReport() {
-        this.srcIp = Ip4Address.ZERO;
-        this.dstIp = Ip4Address.ZERO;
-        this.srcPort = 0;
-        this.dstPort = 0;
-        this.protocol = 0;
-        this.queueSize = ImmutableByteSequence.ofZeros(4);
+        this(0, 0, (short) 0, (short) 0, (byte) 0, 0, 0);
     }
 
     /**
      * Constructs ConQuest Report data with specific values.
      *
-     * @param srcIpAddress source IP address of the reported flow
-     * @param dstIpAddress destination IP address of the reported flow
-     * @param srcPort      source L4 port of the reported flow
-     * @param dstPort      destination L4 port of the reported flow
-     * @param protocol     L4 protocol of the reported flow
-     * @param queueSize    queue occupancy of the reported flow
-     * @param reportTime   time at which the report was received
+     * @param srcIp            source IPv4 address of the reported flow
+     * @param dstIp            destination IPv4 address of the reported flow
+     * @param srcPort          source L4 port of the reported flow
+     * @param dstPort          destination L4 port of the reported flow
+     * @param protocol         L4 protocol of the reported flow
+     * @param queueSize        queue occupancy of the reported flow
+     * @param reportTimeMillis epoch time in milliseconds at which the report was received
      */
-    public ConQuestReport(Ip4Address srcIpAddress, Ip4Address dstIpAddress,
-                          short srcPort, short dstPort,
-                          byte protocol, ImmutableByteSequence queueSize,
-                          LocalTime reportTime) {
-        this.srcIp = srcIpAddress;
-        this.dstIp = dstIpAddress;
-        this.srcPort = srcPort;
-        this.dstPort = dstPort;
+    public ConQuestReport(int srcIp, int dstIp, short srcPort, short dstPort, byte protocol, int queueSize,
+                          long reportTimeMillis) {
+        this.addresses = ((long) srcIp << 32) | (dstIp & 0xffffffffL);
+        this.ports = ((srcPort & 0xffff) << 16) | (dstPort & 0xffff);
         this.protocol = protocol;
         this.queueSize = queueSize;
-        this.reportTime = reportTime;
+        this.reportTimeMillis = reportTimeMillis;
+    }
+
+    public int srcIp() {
+        return (int) (addresses >>> 32);
+    }
+
+    public int dstIp() {
+        return (int) addresses;
     }
 
     public Ip4Address srcAddr() {
-        return this.srcIp;
+        return Ip4Address.valueOf(srcIp());
     }
 
     public Ip4Address dstAddr() {
-        return this.dstIp;
+        return Ip4Address.valueOf(dstIp());
     }
 
     public int srcPortInt() {
-        return this.srcPort & 0xffff;
+        return ports >>> 16;
     }
 
     public int dstPortInt() {
-        return this.dstPort & 0xffff;
+        return ports & 0xffff;
+    }
+
+    public byte protocol() {
+        return protocol;
     }
 
     public int protocolInt() {
         return this.protocol & 0xff;
     }
 
-    public LocalTime getReportTime() {
-        return reportTime;
+    /**
+     * Returns the queue occupancy reported by the switch.
+     *
+     * @return queue size in bytes, as an unsigned integer
+     */
+    public int queueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Returns the time at which the report was received.
+     *
+     * @return epoch time in milliseconds
+     */
+    public long reportTimeMillis() {
+        return reportTimeMillis;
+    }
+
+    /**
+     * Returns the time at which the report was received, in the local time zone.
+     *
+     * @return receive date and time
+     */
+    public LocalDateTime getReportTime() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(reportTimeMillis), ZoneId.systemDefault());
     }
 
     public String queueSizeString() {
-        long size;
-        try {
-            size = queueSize.fit(64).asReadOnlyBuffer().getLong();
-        } catch (ImmutableByteSequence.ByteSequenceTrimException e) {
-            // This catch is impossible, just adding it to satisfy the IDE
-            return "";
-        }
+        return queueSizeString(queueSize & 0xffffffffL);
+    }
 
+    /**
+     * Formats a queue size for display in bytes, KB or MB.
+     *
+     * @param size queue size in bytes
+     * @return human-readable queue size
+     */
+    public static String queueSizeString(long size) {
         String hrSize = null;
     
         double b = size;
@@ -104,8 +140,18 @@ public class ConQuestReport {
     }
 
     public String protocolString() {
+        return protocolString(this.protocol);
+    }
+
+    /**
+     * Returns the display name of an IP protocol.
+     *
+     * @param protocolValue IP protocol number
+     * @return protocol name
+     */
+    public static String protocolString(byte protocolValue) {
         String protocol;
-        switch (this.protocol) {
+        switch (protocolValue) {
             case Constants.PROTO_ICMP:
                 protocol = "ICMP";
                 break;
@@ -116,16 +162,33 @@ public class ConQuestReport {
                 protocol = "UDP";
                 break;
             default:
-                protocol = String.format("PROTO:%d", this.protocolInt());
+                protocol = String.format("PROTO:%d", protocolValue & 0xff);
                 break;
         }
         return protocol;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ConQuestReport that = (ConQuestReport) o;
+        return addresses == that.addresses && ports == that.ports && protocol == that.protocol
+                && queueSize == that.queueSize && reportTimeMillis == that.reportTimeMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = ReportIngestPipeline.flowHash(srcIp(), dstIp(), (short) srcPortInt(), (short) dstPortInt(),
+                                                   protocol);
+        result = 31 * result + queueSize;
+        return 31 * result + Long.hashCode(reportTimeMillis);
+    }
+
     public String toString() {
         return String.format("(%s, %s:%d->%s:%d, Size:%s, Received:%s)", protocolString(),
-                this.srcIp.toString(), this.srcPortInt(),
-                this.dstIp.toString(), this.dstPortInt(),
-                this.queueSizeString(), this.reportTime.toString());
+                this.srcAddr().toString(), this.srcPortInt(),
+                this.dstAddr().toString(), this.dstPortInt(),
+                this.queueSizeString(), this.getReportTime().toString());
     }
 }
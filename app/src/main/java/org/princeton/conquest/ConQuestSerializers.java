@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.onlab.util.KryoNamespace;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.store.serializers.KryoNamespaces;
+
+
+/**
+ * Serializers for the state the app shares through ONOS distributed primitives.
+ * <p>
+ * Blocked flows are written field by field rather than through Kryo's reflective field serializer, so a record costs
+ * a few dozen bytes on the wire instead of carrying class and object headers for every nested address.
+ */
+final class ConQuestSerializers {
+
+    static final KryoNamespace NAMESPACE = KryoNamespace.newBuilder()
+            .register(KryoNamespaces.API)
+            .nextId(KryoNamespaces.BEGIN_USER_CUSTOM_ID)
+            .register(new FlowKeySerializer(), FlowKey.class)
+            .register(new BlockRecordSerializer(), BlockRecord.class)
+            .build("ConQuest");
+
+    private ConQuestSerializers() {
+    }
+
+    /**
+     * Writes a 5-tuple as two ints, two shorts and a byte.
+     */
+    static final class FlowKeySerializer extends Serializer<FlowKey> {
+
+        FlowKeySerializer() {
+            super(false, true);
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, FlowKey key) {
+            writeFlowKey(output, key);
+        }
+
+        @Override
+        public FlowKey read(Kryo kryo, Input input, Class<FlowKey> type) {
+            return readFlowKey(input);
+        }
+    }
+
+    /**
+     * Writes a block record with its report inlined.
+     */
+    static final class BlockRecordSerializer extends Serializer<BlockRecord> {
+
+        BlockRecordSerializer() {
+            super(false, true);
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, BlockRecord record) {
+            output.writeString(record.owner().id());
+            output.writeString(record.device() == null ? null : record.device().toString());
+            output.writeLong(record.expiryMillis());
+
+            ConQuestReport report = record.report();
+            writeFlowKey(output, FlowKey.of(report));
+            output.writeInt(report.queueSize);
+            output.writeLong(report.reportTimeMillis);
+        }
+
+        @Override
+        public BlockRecord read(Kryo kryo, Input input, Class<BlockRecord> type) {
+            NodeId owner = NodeId.nodeId(input.readString());
+            String device = input.readString();
+            long expiryMillis = input.readLong();
+
+            FlowKey key = readFlowKey(input);
+            int queueSize = input.readInt();
+            long reportTimeMillis = input.readLong();
+            ConQuestReport report = new ConQuestReport(key.srcIp(), key.dstIp(), (short) key.srcPort(),
+                    (short) key.dstPort(), key.protocol(), queueSize, reportTimeMillis);
+            return new BlockRecord(owner, device == null ? null : DeviceId.deviceId(device), expiryMillis, report);
+        }
+    }
+
+    private static void writeFlowKey(Output output, FlowKey key) {
+        output.writeInt(key.srcIp());
+        output.writeInt(key.dstIp());
+        output.writeShort(key.srcPort());
+        output.writeShort(key.dstPort());
+        output.writeByte(key.protocol());
+    }
+
+    private static FlowKey readFlowKey(Input input) {
+        return FlowKey.of(input.readInt(), input.readInt(), input.readShort(), input.readShort(),
+                          input.readByte());
+    }
+}
@@ -15,11 +15,14 @@
  */
 package org.princeton.conquest;
 
+import com.codahale.metrics.Metric;
 import org.onlab.packet.Ip4Prefix;
 import org.onosproject.net.DeviceId;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface ConQuestService {
 
@@ -44,6 +47,14 @@ public interface ConQuestService {
      */
     void blockFlow(ConQuestReport report);
 
+    /**
+     * Block the flows in several reports at once. The resulting blocks are submitted to the network together
+     * instead of waiting for the batching window to close.
+     *
+     * @param reports the reports whose flows should be blocked
+     */
+    void blockFlows(Collection<ConQuestReport> reports);
+
     /**
      * Get a list of descriptions of currently blocked flow 5-tuples.
      *
@@ -51,14 +62,44 @@ public interface ConQuestService {
      */
     Collection<String> getCurrentlyBlockedFlows();
 
+    /**
+     * Get counters describing flow blocking: the number of currently active blocks, and how many blocks were
+     * installed, extended by repeat reports, and removed since the app started.
+     *
+     * @return counter values keyed by counter name
+     */
+    Map<String, Long> getBlockCounters();
+
+    /**
+     * Get counters describing the reports ingested by this cluster instance: how many reports it owned as master of
+     * the sending device, how many it left to the master of the sending device, and how many it owned from each
+     * device. Owned reports are counted before admission control and the ingest queues. Also get how many
+     * reports admission control let through within their device's rate, let through as samples of an overloaded
+     * device, and shed, overall and per device. When a report rate budget is configured, also get how often trigger
+     * thresholds were adjusted to meet it, and how many doublings each device's thresholds are above (or, if
+     * negative, below) the installed ones.
+     *
+     * @return counter values keyed by counter name
+     */
+    Map<String, Long> getIngestCounters();
+
+    /**
+     * Get the metrics the app publishes to the ONOS metrics service: report rates and processing times on the ingest
+     * path, batch sizes and install times on the mitigation path, and the lag and backlog of block expiry.
+     *
+     * @return metrics keyed by feature and name, such as {@code Ingest.reports}
+     */
+    Map<String, Metric> getMetrics();
+
     /**
      * Install table entries in the dataplane to produce control plane reports when queues exceed a target delay and
      * some flow is occupying too much of the queue.
      *
      * @param minQueueDelay      The queue delay needed for a report to be generated
      * @param minFlowSizeInQueue How many queue bytes a single flow should occupy for a report to be generated
+     * @return A future completed once every device has installed its triggers
      */
-    void addReportTriggerEverywhere(int minQueueDelay, int minFlowSizeInQueue);
+    CompletableFuture<Void> addReportTriggerEverywhere(int minQueueDelay, int minFlowSizeInQueue);
 
     /**
      * Install table entries in the dataplane to produce control plane reports when queues exceed a target depth
@@ -66,30 +107,97 @@ public interface ConQuestService {
      * @param deviceId           The network device where we should add the report trigger
      * @param minQueueDelay      The queue delay needed for a report to be generated
      * @param minFlowSizeInQueue How many queue bytes a single flow should occupy for a report to be generated
+     * @return A future completed once the device has installed its triggers
      */
-    void addReportTrigger(DeviceId deviceId, int minQueueDelay, int minFlowSizeInQueue);
+    CompletableFuture<Void> addReportTrigger(DeviceId deviceId, int minQueueDelay, int minFlowSizeInQueue);
 
     /**
      * Remove report triggers from the target device.
      *
      * @param deviceId The device from which report triggers should be removed
+     * @return A future completed once the device has removed its triggers
      */
-    void removeReportTriggers(DeviceId deviceId);
+    CompletableFuture<Void> removeReportTriggers(DeviceId deviceId);
 
     /**
      * Remove report triggers from all devices on the network.
+     *
+     * @return A future completed once every device has removed its triggers
      */
-    void removeAllReportTriggers();
+    CompletableFuture<Void> removeAllReportTriggers();
 
     /**
-     * Get all ConQuest reports received by the app.
+     * Get the ConQuest reports received by the app. Only the most recent reports that fit in the configured report
+     * buffer are retained.
      *
      * @return A collection of received ConQuest reports.
      */
     List<ConQuestReport> getReceivedReports();
 
     /**
-     * Clear the ConQuest reports received by the app.
+     * Get the received ConQuest reports that match a query, oldest first. The query is answered from indexes kept
+     * as reports arrive: a query for a single 5-tuple reads only that flow's reports, and a query for a time range
+     * only scans the reports received around that range.
+     *
+     * @param query Flow fields, time range, offset and limit of the reports to return
+     * @return The matching reports
+     */
+    List<ConQuestReport> queryReports(ReportQuery query);
+
+    /**
+     * Open a cursor over the ConQuest reports received by the app, to read them in chunks without copying the whole
+     * report store. The cursor returns the reports present when it was opened, oldest first.
+     *
+     * @return A new report cursor.
+     */
+    ReportCursor openReportCursor();
+
+    /**
+     * Get the number of received reports that were dropped from the bounded report store to make room for newer
+     * reports.
+     *
+     * @return number of dropped reports
+     */
+    long getEvictedReportCount();
+
+    /**
+     * Get reports from the durable report log received within a time range, oldest first. Unlike the reports
+     * returned by {@link #getReceivedReports()}, logged reports survive app and controller restarts, for as long as
+     * the log's retention limits allow.
+     *
+     * @param fromMillis Earliest receive time, inclusive, in epoch milliseconds
+     * @param toMillis   Latest receive time, inclusive, in epoch milliseconds
+     * @param limit      Maximum number of reports to return
+     * @return The logged reports, or an empty list if the report log is disabled
+     */
+    List<ConQuestReport> getLoggedReports(long fromMillis, long toMillis, int limit);
+
+    /**
+     * Get the flows or addresses that caused the most reports, or the largest total reported queue size, since the
+     * reports were last cleared. The ranking is kept up to date as reports arrive, in bounded memory, so reading it
+     * takes the same time however many reports were received. Totals are estimates that may overcount by at most
+     * the error reported with each heavy hitter.
+     *
+     * @param dimension Whether to rank flow 5-tuples, source addresses or destination addresses
+     * @param metric    Whether to rank by number of reports or by total reported queue size
+     * @param count     Maximum number of heavy hitters to return
+     * @return The heavy hitters, heaviest first
+     */
+    List<HeavyHitter> getHeavyHitters(HeavyHitter.Dimension dimension, HeavyHitter.Metric metric, int count);
+
+    /**
+     * Get per-flow statistics of the ConQuest reports received since the reports were last cleared. The statistics
+     * are updated as reports arrive, so reading them takes time proportional to the number of flows rather than
+     * the number of reports. Only a bounded number of flows is tracked; the flows that went longest without a
+     * report are dropped first.
+     *
+     * @return The statistics of each tracked flow
+     */
+    List<FlowStats> getFlowStats();
+
+    /**
+     * Clear the ConQuest reports received by the app, and the heavy hitter rankings and flow statistics built from
+     * them.
      */
     void clearReceivedReports();
 
@@ -100,6 +208,21 @@ public interface ConQuestService {
      */
     void whitelistPrefix(Ip4Prefix prefix);
 
+    /**
+     * Whitelist several IPv4 prefixes from ConQuest enforcement in a single update.
+     *
+     * @param prefixes the prefixes to add to the whitelist
+     */
+    void whitelistPrefixes(Collection<Ip4Prefix> prefixes);
+
+    /**
+     * Atomically replace the whole whitelist. Reports are checked against either the old or the new whitelist,
+     * never a partially updated one.
+     *
+     * @param prefixes the new whitelist
+     */
+    void replaceWhitelist(Collection<Ip4Prefix> prefixes);
+
     /**
      * Clear the whitelist of IPv4 prefixes exempt from ConQuest enforcement.
      */
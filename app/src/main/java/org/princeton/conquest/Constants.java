@@ -50,6 +50,8 @@ public class Constants {
     // ACL P4 Entities
     public static PiTableId ACL_TABLE = PiTableId.of("FabricIngress.acl.acl");
     public static PiActionId ACL_DROP = PiActionId.of("FabricIngress.acl.drop");
+    // Above the priorities segment routing uses for its own ACL entries
+    public static final int ACL_DROP_PRIORITY = 50000;
 
     public static PiMatchFieldId ACL_IP_SRC = PiMatchFieldId.of("ipv4_src");
     public static PiMatchFieldId ACL_IP_DST = PiMatchFieldId.of("ipv4_dst");
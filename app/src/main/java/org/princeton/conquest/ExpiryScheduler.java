@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import com.codahale.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timing wheel that expires blocked flows in batches.
+ * <p>
+ * Blocks are handed over through a lock-free inbox and placed into the wheel by a single ticker thread. Every tick,
+ * all blocks that came due are passed to the handler together. The wheel reads each block's expiry only when its slot
+ * comes up, so extending a block needs no rescheduling: a block found with a later expiry is simply placed again.
+ * <p>
+ * Level {@code l} of the wheel has {@value #SLOTS} slots of {@code tickMs * SLOTS^l} milliseconds each, so four levels
+ * of 10ms ticks cover about 46 hours; blocks further out wait in the last slot and are placed again when it fires.
+ */
+final class ExpiryScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpiryScheduler.class);
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    /**
+     * Receives the blocks that expired in one tick.
+     */
+    interface Handler {
+        /**
+         * Handles expired blocks.
+         *
+         * @param expired blocks whose expiry time has passed
+         */
+        void expired(List<BlockedFlowIndex.Entry> expired);
+    }
+
+    private final long tickMs;
+    private final Handler handler;
+    private final Histogram lagMillis;
+    private final ScheduledExecutorService ticker;
+    private final Queue<BlockedFlowIndex.Entry> inbox = new ConcurrentLinkedQueue<>();
+
+    // Only accessed by the ticker thread
+    @SuppressWarnings("unchecked")
+    private final List<BlockedFlowIndex.Entry>[][] wheel = new List[LEVELS][SLOTS];
+    private long currentTick;
+    private volatile int scheduled;
+
+    /**
+     * Creates and starts an expiry scheduler.
+     *
+     * @param tickMs        resolution of the wheel in milliseconds
+     * @param threadFactory factory for the ticker thread
+     * @param handler       receives expired blocks, on the ticker thread
+     * @param lagMillis     records how late each block expired, in milliseconds
+     */
+    ExpiryScheduler(long tickMs, ThreadFactory threadFactory, Handler handler, Histogram lagMillis) {
+        this.tickMs = tickMs;
+        this.handler = handler;
+        this.lagMillis = lagMillis;
+        this.currentTick = System.currentTimeMillis() / tickMs;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        ticker.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules a block to expire at its current expiry time. Blocks that never expire are ignored.
+     *
+     * @param entry the block
+     */
+    void schedule(BlockedFlowIndex.Entry entry) {
+        if (entry.expiryMillis() != BlockedFlowIndex.NEVER) {
+            inbox.add(entry);
+        }
+    }
+
+    /**
+     * Returns the number of blocks waiting in the wheel, not counting those still in the inbox.
+     *
+     * @return number of scheduled blocks
+     */
+    int scheduledCount() {
+        return scheduled;
+    }
+
+    /**
+     * Stops the scheduler. Blocks that have not expired yet are dropped.
+     */
+    void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            final long nowMillis = System.currentTimeMillis();
+            final long nowTick = nowMillis / tickMs;
+            final List<BlockedFlowIndex.Entry> due = new ArrayList<>();
+
+            BlockedFlowIndex.Entry entry;
+            while ((entry = inbox.poll()) != null) {
+                place(entry, due);
+            }
+            while (currentTick < nowTick) {
+                currentTick++;
+                cascade();
+                List<BlockedFlowIndex.Entry> slot = wheel[0][(int) (currentTick & SLOT_MASK)];
+                if (slot != null) {
+                    wheel[0][(int) (currentTick & SLOT_MASK)] = null;
+                    scheduled -= slot.size();
+                    for (BlockedFlowIndex.Entry fired : slot) {
+                        place(fired, due);
+                    }
+                }
+            }
+            if (due.isEmpty()) {
+                return;
+            }
+            for (BlockedFlowIndex.Entry expired : due) {
+                lagMillis.update(nowMillis - expired.expiryMillis());
+            }
+            handler.expired(due);
+        } catch (RuntimeException e) {
+            log.error("Exception while expiring blocks", e);
+        }
+    }
+
+    /**
+     * Moves the entries of every higher-level slot that starts at the current tick down the wheel.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                return;
+            }
+            int index = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            List<BlockedFlowIndex.Entry> slot = wheel[level][index];
+            if (slot != null) {
+                wheel[level][index] = null;
+                scheduled -= slot.size();
+                for (BlockedFlowIndex.Entry entry : slot) {
+                    place(entry, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts an entry in the slot its expiry falls into, or in the due list if it has expired.
+     *
+     * @param entry the entry
+     * @param due   receives the entry if it has expired; null while cascading, when entries go to the current
+     *              level 0 slot instead and are collected when it fires
+     */
+    private void place(BlockedFlowIndex.Entry entry, List<BlockedFlowIndex.Entry> due) {
+        // Round up so that a block never expires early
+        long expiryTick = (entry.expiryMillis() + tickMs - 1) / tickMs;
+        if (expiryTick <= currentTick) {
+            if (due != null) {
+                due.add(entry);
+                return;
+            }
+            expiryTick = currentTick;
+        }
+        int level = (Long.SIZE - 1 - Long.numberOfLeadingZeros(expiryTick ^ currentTick)) / SLOT_BITS;
+        if (level >= LEVELS) {
+            // Beyond the range of the wheel: park in the last slot that is still ahead and place again from there
+            level = LEVELS - 1;
+            expiryTick = currentTick + ((long) SLOT_MASK << (SLOT_BITS * level));
+        }
+        int index = (int) ((expiryTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        List<BlockedFlowIndex.Entry> slot = wheel[level][index];
+        if (slot == null) {
+            slot = new ArrayList<>();
+            wheel[level][index] = slot;
+        }
+        slot.add(entry);
+        scheduled++;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.packet.Ip4Address;
+
+/**
+ * Immutable IPv4 5-tuple identifying a reported flow, packed into primitives.
+ */
+public final class FlowKey {
+
+    private final long addresses;
+    private final int ports;
+    private final byte protocol;
+
+    private FlowKey(long addresses, int ports, byte protocol) {
+        this.addresses = addresses;
+        this.ports = ports;
+        this.protocol = protocol;
+    }
+
+    /**
+     * Creates a flow key from the fields of a 5-tuple.
+     *
+     * @param srcIp    source IPv4 address
+     * @param dstIp    destination IPv4 address
+     * @param srcPort  source L4 port
+     * @param dstPort  destination L4 port
+     * @param protocol IP protocol
+     * @return a flow key
+     */
+    public static FlowKey of(int srcIp, int dstIp, short srcPort, short dstPort, byte protocol) {
+        return new FlowKey(((long) srcIp << 32) | (dstIp & 0xffffffffL),
+                           ((srcPort & 0xffff) << 16) | (dstPort & 0xffff), protocol);
+    }
+
+    /**
+     * Returns the key of the flow described by a report.
+     *
+     * @param report a ConQuest report
+     * @return the report's flow key
+     */
+    public static FlowKey of(ConQuestReport report) {
+        // Reports pack their 5-tuple the same way
+        return new FlowKey(report.addresses, report.ports, report.protocol);
+    }
+
+    public int srcIp() {
+        return (int) (addresses >>> 32);
+    }
+
+    public int dstIp() {
+        return (int) addresses;
+    }
+
+    public int srcPort() {
+        return ports >>> 16;
+    }
+
+    public int dstPort() {
+        return ports & 0xffff;
+    }
+
+    public byte protocol() {
+        return protocol;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FlowKey that = (FlowKey) o;
+        return addresses == that.addresses && ports == that.ports && protocol == that.protocol;
+    }
+
+    @Override
+    public int hashCode() {
+        return ReportIngestPipeline.flowHash(srcIp(), dstIp(), (short) srcPort(), (short) dstPort(), protocol);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("(%s, %s:%d->%s:%d)", ConQuestReport.protocolString(protocol),
+                Ip4Address.valueOf(srcIp()), srcPort(), Ip4Address.valueOf(dstIp()), dstPort());
+    }
+}
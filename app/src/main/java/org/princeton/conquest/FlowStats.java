@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Statistics of the reports received for one flow 5-tuple since the reports were last cleared.
+ */
+public final class FlowStats {
+
+    private final FlowKey flow;
+    private final long reports;
+    private final long firstSeenMillis;
+    private final long lastSeenMillis;
+    private final long maxQueueSize;
+    private final long queueSizeSum;
+    private final long lastQueueSize;
+
+    /**
+     * Creates flow statistics.
+     *
+     * @param flow            the flow 5-tuple
+     * @param reports         number of reports received for the flow
+     * @param firstSeenMillis epoch time in milliseconds of the first report
+     * @param lastSeenMillis  epoch time in milliseconds of the latest report
+     * @param maxQueueSize    largest reported queue size
+     * @param queueSizeSum    sum of the reported queue sizes
+     * @param lastQueueSize   queue size in the latest report
+     */
+    public FlowStats(FlowKey flow, long reports, long firstSeenMillis, long lastSeenMillis,
+                     long maxQueueSize, long queueSizeSum, long lastQueueSize) {
+        this.flow = checkNotNull(flow);
+        this.reports = reports;
+        this.firstSeenMillis = firstSeenMillis;
+        this.lastSeenMillis = lastSeenMillis;
+        this.maxQueueSize = maxQueueSize;
+        this.queueSizeSum = queueSizeSum;
+        this.lastQueueSize = lastQueueSize;
+    }
+
+    public FlowKey flow() {
+        return flow;
+    }
+
+    public long reports() {
+        return reports;
+    }
+
+    public long firstSeenMillis() {
+        return firstSeenMillis;
+    }
+
+    public long lastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    public long maxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public long meanQueueSize() {
+        return reports == 0 ? 0 : queueSizeSum / reports;
+    }
+
+    public long lastQueueSize() {
+        return lastQueueSize;
+    }
+
+    /**
+     * Combines the statistics of the same flow recorded separately.
+     *
+     * @param other statistics of the same flow
+     * @return the combined statistics
+     */
+    FlowStats merge(FlowStats other) {
+        FlowStats latest = other.lastSeenMillis > lastSeenMillis ? other : this;
+        return new FlowStats(flow, reports + other.reports,
+                             Math.min(firstSeenMillis, other.firstSeenMillis), latest.lastSeenMillis,
+                             Math.max(maxQueueSize, other.maxQueueSize), queueSizeSum + other.queueSizeSum,
+                             latest.lastQueueSize);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s reports=%d firstSeen=%d lastSeen=%d maxQueueSize=%d meanQueueSize=%d "
+                                     + "lastQueueSize=%d", flow, reports, firstSeenMillis, lastSeenMillis,
+                             maxQueueSize, meanQueueSize(), lastQueueSize);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-flow statistics of received reports, updated as each report arrives.
+ * <p>
+ * Every ingest shard records into its own open-addressing table keyed by the packed 5-tuple, so recording a report
+ * is a probe and a few array writes, and never contends with other ingest threads. Every table holds a bounded number
+ * of flows; once full, the flow that went longest without a report is evicted to make room. Each flow is always
+ * recorded by the same ingest shard, so reading the statistics costs the same as the number of flows tracked, however
+ * many reports were received. Tables are kept by shard number rather than by thread, so restarting the ingest
+ * pipeline reuses them.
+ */
+final class FlowTable {
+
+    private static final int NONE = -1;
+
+    /**
+     * Flows recorded by one ingest shard. The lock is only contended while the flows are being read, or by packet
+     * dispatch threads when reports are processed without the ingest pipeline.
+     */
+    private static final class Shard {
+        private final int capacity;
+        private final int shift;
+        private final int mask;
+
+        // Flow key and statistics held in each slot; a slot is free when its report count is 0
+        private final long[] addresses;
+        private final int[] ports;
+        private final byte[] protocols;
+        private final int[] hashes;
+        private final long[] reports;
+        private final long[] firstSeen;
+        private final long[] lastSeen;
+        private final long[] queueSizeSums;
+        private final int[] maxQueueSizes;
+        private final int[] lastQueueSizes;
+        // Recency list through the occupied slots
+        private final int[] newer;
+        private final int[] older;
+        private int newest = NONE;
+        private int oldest = NONE;
+        private int size;
+
+        private Shard(int capacity) {
+            this.capacity = capacity;
+            // At most half full, so probe sequences stay short
+            final int slots = Integer.highestOneBit(Math.max(1, capacity) * 2 - 1) << 1;
+            this.shift = Integer.numberOfLeadingZeros(slots) + 1;
+            this.mask = slots - 1;
+            this.addresses = new long[slots];
+            this.ports = new int[slots];
+            this.protocols = new byte[slots];
+            this.hashes = new int[slots];
+            this.reports = new long[slots];
+            this.firstSeen = new long[slots];
+            this.lastSeen = new long[slots];
+            this.queueSizeSums = new long[slots];
+            this.maxQueueSizes = new int[slots];
+            this.lastQueueSizes = new int[slots];
+            this.newer = new int[slots];
+            this.older = new int[slots];
+        }
+
+        /**
+         * Returns the first slot probed for a hash. The ingest pipeline shards flows by the low bits of the same
+         * hash, so the table is indexed by its high bits instead.
+         */
+        private int home(int hash) {
+            return hash >>> shift;
+        }
+
+        private synchronized void record(long flowAddresses, int flowPorts, byte protocol, int hash, int queueSize,
+                                         long timestampMillis) {
+            int slot = find(flowAddresses, flowPorts, protocol, hash);
+            if (reports[slot] == 0) {
+                if (size == capacity) {
+                    remove(oldest);
+                    // Removing shifts entries back along their probe sequences
+                    slot = find(flowAddresses, flowPorts, protocol, hash);
+                }
+                addresses[slot] = flowAddresses;
+                ports[slot] = flowPorts;
+                protocols[slot] = protocol;
+                hashes[slot] = hash;
+                firstSeen[slot] = timestampMillis;
+                queueSizeSums[slot] = 0;
+                maxQueueSizes[slot] = queueSize;
+                size++;
+                linkNewest(slot);
+            } else if (slot != newest) {
+                unlink(slot);
+                linkNewest(slot);
+            }
+            reports[slot]++;
+            lastSeen[slot] = timestampMillis;
+            queueSizeSums[slot] += queueSize & 0xffffffffL;
+            if (Integer.compareUnsigned(queueSize, maxQueueSizes[slot]) > 0) {
+                maxQueueSizes[slot] = queueSize;
+            }
+            lastQueueSizes[slot] = queueSize;
+        }
+
+        /**
+         * Returns the slot holding a flow, or the free slot where it would be inserted.
+         */
+        private int find(long flowAddresses, int flowPorts, byte protocol, int hash) {
+            int slot = home(hash);
+            while (reports[slot] != 0 && (addresses[slot] != flowAddresses || ports[slot] != flowPorts
+                    || protocols[slot] != protocol)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Frees a slot and moves the entries probed after it back, so that no probe sequence has a gap.
+         */
+        private void remove(int slot) {
+            unlink(slot);
+            reports[slot] = 0;
+            size--;
+            int hole = slot;
+            for (int i = (slot + 1) & mask; reports[i] != 0; i = (i + 1) & mask) {
+                // Move the entry only if the hole lies between its home slot and where it is now
+                if (((i - home(hashes[i])) & mask) >= ((i - hole) & mask)) {
+                    move(i, hole);
+                    hole = i;
+                }
+            }
+        }
+
+        private void move(int from, int to) {
+            addresses[to] = addresses[from];
+            ports[to] = ports[from];
+            protocols[to] = protocols[from];
+            hashes[to] = hashes[from];
+            reports[to] = reports[from];
+            firstSeen[to] = firstSeen[from];
+            lastSeen[to] = lastSeen[from];
+            queueSizeSums[to] = queueSizeSums[from];
+            maxQueueSizes[to] = maxQueueSizes[from];
+            lastQueueSizes[to] = lastQueueSizes[from];
+            newer[to] = newer[from];
+            older[to] = older[from];
+            if (newer[to] == NONE) {
+                newest = to;
+            } else {
+                older[newer[to]] = to;
+            }
+            if (older[to] == NONE) {
+                oldest = to;
+            } else {
+                newer[older[to]] = to;
+            }
+            reports[from] = 0;
+        }
+
+        private void linkNewest(int slot) {
+            newer[slot] = NONE;
+            older[slot] = newest;
+            if (newest == NONE) {
+                oldest = slot;
+            } else {
+                newer[newest] = slot;
+            }
+            newest = slot;
+        }
+
+        private void unlink(int slot) {
+            if (newer[slot] == NONE) {
+                newest = older[slot];
+            } else {
+                older[newer[slot]] = older[slot];
+            }
+            if (older[slot] == NONE) {
+                oldest = newer[slot];
+            } else {
+                newer[older[slot]] = newer[slot];
+            }
+        }
+
+        private synchronized void collect(List<FlowStats> flows) {
+            for (int slot = newest; slot != NONE; slot = older[slot]) {
+                final long flowAddresses = addresses[slot];
+                final int flowPorts = ports[slot];
+                FlowKey flow = FlowKey.of((int) (flowAddresses >>> 32), (int) flowAddresses,
+                                          (short) (flowPorts >>> 16), (short) flowPorts, protocols[slot]);
+                flows.add(new FlowStats(flow, reports[slot], firstSeen[slot], lastSeen[slot],
+                                        maxQueueSizes[slot] & 0xffffffffL, queueSizeSums[slot],
+                                        lastQueueSizes[slot] & 0xffffffffL));
+            }
+        }
+
+        private synchronized void clear() {
+            Arrays.fill(reports, 0);
+            newest = NONE;
+            oldest = NONE;
+            size = 0;
+        }
+    }
+
+    private final int capacity;
+    // Tables by ingest shard number; grown when a pipeline with more shards starts recording
+    private volatile Shard[] shards = new Shard[0];
+
+    /**
+     * Creates a flow table.
+     *
+     * @param capacity number of flows each recording thread keeps track of
+     */
+    FlowTable(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records a report.
+     *
+     * @param shard           number of the ingest shard recording the report
+     * @param srcIp           source IPv4 address
+     * @param dstIp           destination IPv4 address
+     * @param srcPort         source L4 port
+     * @param dstPort         destination L4 port
+     * @param protocol        IP protocol
+     * @param queueSize       queue occupancy reported by the switch
+     * @param timestampMillis epoch time in milliseconds at which the report was received
+     */
+    void record(int shard, int srcIp, int dstIp, short srcPort, short dstPort, byte protocol, int queueSize,
+                long timestampMillis) {
+        shard(shard).record(ReportRingBuffer.packAddresses(srcIp, dstIp),
+                            ((srcPort & 0xffff) << 16) | (dstPort & 0xffff), protocol,
+                            ReportIngestPipeline.flowHash(srcIp, dstIp, srcPort, dstPort, protocol),
+                            queueSize, timestampMillis);
+    }
+
+    /**
+     * Returns the statistics of every tracked flow. Flows recorded by a single shard come most recently updated
+     * first.
+     *
+     * @return per-flow statistics
+     */
+    List<FlowStats> flows() {
+        List<FlowStats> flows = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.collect(flows);
+        }
+        if (shards.length <= 1) {
+            return flows;
+        }
+        // Flows move between shards only when the ingest pipeline is reconfigured
+        Map<FlowKey, FlowStats> merged = new HashMap<>(flows.size() * 2);
+        for (FlowStats stats : flows) {
+            merged.merge(stats.flow(), stats, FlowStats::merge);
+        }
+        return merged.size() == flows.size() ? flows : new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Forgets all recorded flows.
+     */
+    void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    private Shard shard(int index) {
+        final Shard[] current = shards;
+        return index < current.length ? current[index] : addShards(index);
+    }
+
+    private synchronized Shard addShards(int index) {
+        if (index >= shards.length) {
+            Shard[] grown = Arrays.copyOf(shards, index + 1);
+            for (int i = shards.length; i < grown.length; i++) {
+                grown[i] = new Shard(capacity);
+            }
+            shards = grown;
+        }
+        return shards[index];
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A key that ranks among the heaviest contributors to congestion reports, with its estimated totals.
+ * <p>
+ * Heavy hitters are tracked with bounded memory, so the totals are estimates: they never undercount, and overcount
+ * by at most {@link #error()} in the ranking metric.
+ */
+public final class HeavyHitter {
+
+    /**
+     * What heavy hitters are aggregated by.
+     */
+    public enum Dimension {
+        /**
+         * The full 5-tuple of the reported flow.
+         */
+        FLOW,
+        /**
+         * The source IPv4 address of the reported flow.
+         */
+        SOURCE,
+        /**
+         * The destination IPv4 address of the reported flow.
+         */
+        DESTINATION
+    }
+
+    /**
+     * What heavy hitters are ranked by.
+     */
+    public enum Metric {
+        /**
+         * The number of reports received.
+         */
+        REPORTS,
+        /**
+         * The sum of the queue sizes carried by the reports.
+         */
+        QUEUE_SIZE
+    }
+
+    private final String key;
+    private final long reports;
+    private final long queueSize;
+    private final long error;
+
+    /**
+     * Creates a heavy hitter.
+     *
+     * @param key       description of the flow or address
+     * @param reports   estimated number of reports
+     * @param queueSize estimated sum of the reported queue sizes
+     * @param error     maximum overestimate of the ranking metric
+     */
+    public HeavyHitter(String key, long reports, long queueSize, long error) {
+        this.key = checkNotNull(key);
+        this.reports = reports;
+        this.queueSize = queueSize;
+        this.error = error;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public long reports() {
+        return reports;
+    }
+
+    public long queueSize() {
+        return queueSize;
+    }
+
+    public long error() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s reports=%d queueSize=%d error=%d", key, reports, queueSize, error);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.packet.Ip4Address;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Continuously ranks flows, source addresses and destination addresses by how many congestion reports they cause
+ * and by the queue sizes in those reports.
+ * <p>
+ * Every ingest shard records into its own set of {@link SpaceSavingSketch}es, so recording never contends with
+ * other ingest threads; the per-shard sketches are summed when read. Each flow is always recorded by the same ingest
+ * shard, so flow counts are summed from a single sketch. Sketches are kept by shard number rather than by thread, so
+ * restarting the ingest pipeline reuses them. Memory is bounded by the sketch capacity times the largest number of
+ * ingest shards configured, and reading costs the same however many reports were seen.
+ */
+final class HeavyHitterTracker {
+
+    private static final HeavyHitter.Dimension[] DIMENSIONS = HeavyHitter.Dimension.values();
+    private static final HeavyHitter.Metric[] METRICS = HeavyHitter.Metric.values();
+
+    /**
+     * Sketches updated by one ingest shard. The lock is only contended while the sketches are being read, or by
+     * packet dispatch threads when reports are processed without the ingest pipeline.
+     */
+    private static final class Shard {
+        private final SpaceSavingSketch<Object>[][] sketches;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Shard(int capacity) {
+            sketches = new SpaceSavingSketch[DIMENSIONS.length][METRICS.length];
+            for (HeavyHitter.Dimension dimension : DIMENSIONS) {
+                for (HeavyHitter.Metric metric : METRICS) {
+                    final boolean rankByWeight = metric == HeavyHitter.Metric.QUEUE_SIZE;
+                    // Addresses are counted as primitives, so recording a report allocates nothing for them
+                    sketches[dimension.ordinal()][metric.ordinal()] = dimension == HeavyHitter.Dimension.FLOW
+                            ? new SpaceSavingSketch<>(capacity, rankByWeight)
+                            : (SpaceSavingSketch) SpaceSavingSketch.withLongKeys(capacity, rankByWeight);
+                }
+            }
+        }
+
+        private synchronized void record(FlowKey flow, long queueSize) {
+            for (SpaceSavingSketch<Object> sketch : sketches[HeavyHitter.Dimension.FLOW.ordinal()]) {
+                sketch.add(flow, queueSize);
+            }
+            final long srcIp = flow.srcIp() & 0xffffffffL;
+            for (SpaceSavingSketch<Object> sketch : sketches[HeavyHitter.Dimension.SOURCE.ordinal()]) {
+                sketch.addLong(srcIp, queueSize);
+            }
+            final long dstIp = flow.dstIp() & 0xffffffffL;
+            for (SpaceSavingSketch<Object> sketch : sketches[HeavyHitter.Dimension.DESTINATION.ordinal()]) {
+                sketch.addLong(dstIp, queueSize);
+            }
+        }
+
+        /**
+         * Adds the monitored counters of one sketch to the totals, and returns the bound on the rank value of the
+         * keys the sketch does not monitor. Each total also sums that bound over the shards that monitor its key.
+         */
+        private synchronized long collect(HeavyHitter.Dimension dimension, HeavyHitter.Metric metric,
+                                          Map<Object, long[]> totals) {
+            final SpaceSavingSketch<Object> sketch = sketches[dimension.ordinal()][metric.ordinal()];
+            final long minRank = sketch.minRank();
+            sketch.forEach(counter -> {
+                long[] total = totals.computeIfAbsent(counter.key(), k -> new long[4]);
+                total[0] += counter.count();
+                total[1] += counter.weight();
+                total[2] += counter.error();
+                total[3] += minRank;
+            });
+            return minRank;
+        }
+
+        private synchronized void clear() {
+            for (SpaceSavingSketch<Object>[] row : sketches) {
+                for (SpaceSavingSketch<Object> sketch : row) {
+                    sketch.clear();
+                }
+            }
+        }
+    }
+
+    private final int capacity;
+    // Sketches by ingest shard number; grown when a pipeline with more shards starts recording
+    private volatile Shard[] shards = new Shard[0];
+
+    /**
+     * Creates a tracker.
+     *
+     * @param capacity number of keys each sketch monitors
+     */
+    HeavyHitterTracker(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records a report.
+     *
+     * @param shard     number of the ingest shard recording the report
+     * @param flow      the reported flow
+     * @param queueSize queue occupancy reported by the switch
+     */
+    void record(int shard, FlowKey flow, int queueSize) {
+        shard(shard).record(flow, queueSize & 0xffffffffL);
+    }
+
+    /**
+     * Returns the heaviest keys of a dimension, heaviest first.
+     *
+     * @param dimension what to aggregate reports by
+     * @param metric    what to rank by
+     * @param count     maximum number of heavy hitters to return
+     * @return the heavy hitters
+     */
+    List<HeavyHitter> top(HeavyHitter.Dimension dimension, HeavyHitter.Metric metric, int count) {
+        Map<Object, long[]> totals = new HashMap<>();
+        long minRanks = 0;
+        for (Shard shard : shards) {
+            minRanks += shard.collect(dimension, metric, totals);
+        }
+        final int rankIndex = metric == HeavyHitter.Metric.QUEUE_SIZE ? 1 : 0;
+        if (dimension != HeavyHitter.Dimension.FLOW) {
+            // A shard that does not monitor an address may still have seen it up to its lightest counter's worth, so
+            // that bound is added to both the estimate and the error of the address. Each flow is only recorded by
+            // the shard that owns it, so flows are counted from that shard alone.
+            for (long[] total : totals.values()) {
+                final long unmonitored = minRanks - total[3];
+                total[rankIndex] += unmonitored;
+                total[2] += unmonitored;
+            }
+        }
+        List<Map.Entry<Object, long[]>> ranked = new ArrayList<>(totals.entrySet());
+        ranked.sort(Comparator.comparingLong((Map.Entry<Object, long[]> e) -> e.getValue()[rankIndex]).reversed());
+
+        List<HeavyHitter> top = new ArrayList<>(Math.min(count, ranked.size()));
+        for (Map.Entry<Object, long[]> entry : ranked.subList(0, Math.min(count, ranked.size()))) {
+            long[] total = entry.getValue();
+            top.add(new HeavyHitter(describe(entry.getKey()), total[0], total[1], total[2]));
+        }
+        return top;
+    }
+
+    /**
+     * Forgets all recorded reports.
+     */
+    void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    private Shard shard(int index) {
+        final Shard[] current = shards;
+        return index < current.length ? current[index] : addShards(index);
+    }
+
+    private synchronized Shard addShards(int index) {
+        if (index >= shards.length) {
+            Shard[] grown = Arrays.copyOf(shards, index + 1);
+            for (int i = shards.length; i < grown.length; i++) {
+                grown[i] = new Shard(capacity);
+            }
+            shards = grown;
+        }
+        return shards[index];
+    }
+
+    private static String describe(Object key) {
+        if (key instanceof Long) {
+            return Ip4Address.valueOf((int) (long) (Long) key).toString();
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.mastership.MastershipService;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which reports this cluster instance processes, so that each report is handled by exactly one instance: the
+ * master of the device that sent it.
+ * <p>
+ * Mastership is cached per device and updated from mastership events, so the check costs one map lookup per report.
+ * When this instance loses mastership of a device it keeps accepting that device's reports for a short grace period,
+ * so reports already on their way from the device are not lost while the new master takes over.
+ */
+final class IngestPartitioner {
+
+    private static final class DeviceState {
+        private volatile boolean master;
+        // Epoch time in milliseconds until which reports are still accepted after losing mastership
+        private volatile long handoverDeadlineMillis;
+        // Reports from a device this instance owns, counted before admission control and queueing
+        private final LongAdder owned = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private DeviceState(boolean master) {
+            this.master = master;
+        }
+    }
+
+    private final MastershipService mastershipService;
+    private final long handoverGraceMillis;
+    private final ConcurrentMap<DeviceId, DeviceState> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a partitioner.
+     *
+     * @param mastershipService   source of the initial mastership of each device
+     * @param handoverGraceMillis how long to keep accepting a device's reports after losing its mastership
+     */
+    IngestPartitioner(MastershipService mastershipService, long handoverGraceMillis) {
+        this.mastershipService = mastershipService;
+        this.handoverGraceMillis = handoverGraceMillis;
+    }
+
+    /**
+     * Decides whether to process a report and counts the decision.
+     *
+     * @param deviceId the device that sent the report
+     * @return true if this instance should process the report
+     */
+    boolean accept(DeviceId deviceId) {
+        DeviceState state = state(deviceId);
+        if (state.master || System.currentTimeMillis() < state.handoverDeadlineMillis) {
+            state.owned.increment();
+            return true;
+        }
+        state.rejected.increment();
+        return false;
+    }
+
+    /**
+     * Records a mastership change.
+     *
+     * @param deviceId    the device
+     * @param localMaster whether this instance is now the device's master
+     */
+    void mastershipChanged(DeviceId deviceId, boolean localMaster) {
+        DeviceState state = state(deviceId);
+        if (state.master && !localMaster) {
+            state.handoverDeadlineMillis = System.currentTimeMillis() + handoverGraceMillis;
+        }
+        state.master = localMaster;
+    }
+
+    /**
+     * Forgets a device that left the network.
+     *
+     * @param deviceId the device
+     */
+    void deviceRemoved(DeviceId deviceId) {
+        devices.remove(deviceId);
+    }
+
+    long ownedCount() {
+        return devices.values().stream().mapToLong(state -> state.owned.sum()).sum();
+    }
+
+    long rejectedCount() {
+        return devices.values().stream().mapToLong(state -> state.rejected.sum()).sum();
+    }
+
+    /**
+     * Returns the number of reports received from each device while this instance owned it. These are counted before
+     * admission control and the ingest queues, so they include reports later shed or dropped.
+     *
+     * @return owned report counts keyed by device
+     */
+    Map<DeviceId, Long> ownedByDevice() {
+        Map<DeviceId, Long> counts = new LinkedHashMap<>();
+        devices.forEach((deviceId, state) -> counts.put(deviceId, state.owned.sum()));
+        return counts;
+    }
+
+    private DeviceState state(DeviceId deviceId) {
+        DeviceState state = devices.get(deviceId);
+        if (state == null) {
+            state = devices.computeIfAbsent(deviceId, id -> new DeviceState(mastershipService.isLocalMaster(id)));
+        }
+        return state;
+    }
+}
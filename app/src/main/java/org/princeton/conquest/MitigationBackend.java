@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import java.util.List;
+
+/**
+ * Installs and removes the network state that blocks flows.
+ * <p>
+ * All methods are called from the single mitigation thread, so implementations need not be thread-safe with respect
+ * to each other's calls.
+ */
+interface MitigationBackend {
+
+    /**
+     * Prepares the backend for use.
+     */
+    void activate();
+
+    /**
+     * Removes all blocks installed by this backend and releases its resources.
+     */
+    void deactivate();
+
+    /**
+     * Installs blocks for a batch of flows.
+     *
+     * @param entries the flows to block
+     */
+    void block(List<BlockedFlowIndex.Entry> entries);
+
+    /**
+     * Removes the blocks previously installed for a batch of flows.
+     *
+     * @param entries the flows to unblock
+     */
+    void unblock(List<BlockedFlowIndex.Entry> entries);
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gathers block and unblock decisions over a short window and applies them in batches.
+ * <p>
+ * A batch is submitted when the window that opened with its first decision closes, or as soon as the batch reaches
+ * its maximum size, whichever comes first. Decisions are applied on a single dedicated thread, in the order they
+ * were made.
+ */
+final class MitigationBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(MitigationBatcher.class);
+
+    private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+    /**
+     * Applies a batch of mitigation decisions.
+     */
+    interface Sink {
+        /**
+         * Applies a batch. Unblocks are applied before blocks, since a flow may be unblocked and then blocked
+         * again within one batch.
+         *
+         * @param blocks   flows to block
+         * @param unblocks flows to unblock
+         */
+        void apply(List<BlockedFlowIndex.Entry> blocks, List<BlockedFlowIndex.Entry> unblocks);
+    }
+
+    private static final class Decision {
+        private final BlockedFlowIndex.Entry entry;
+        private final boolean block;
+        private final long madeNanos;
+
+        private Decision(BlockedFlowIndex.Entry entry, boolean block) {
+            this.entry = entry;
+            this.block = block;
+            this.madeNanos = System.nanoTime();
+        }
+    }
+
+    private final Queue<Decision> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+    private final Sink sink;
+    private final Histogram batchSizes;
+    private final Timer batchLatency;
+
+    private volatile int windowMs;
+    private volatile int maxBatchSize;
+
+    /**
+     * Creates a batcher.
+     *
+     * @param windowMs      how long to gather decisions before submitting them; 0 submits them as soon as possible
+     * @param maxBatchSize  maximum number of decisions per batch
+     * @param threadFactory factory for the thread that applies batches
+     * @param sink          applies each batch
+     * @param batchSizes    records the number of decisions in each batch
+     * @param batchLatency  records the time from the first decision of a batch until the batch was applied
+     */
+    MitigationBatcher(int windowMs, int maxBatchSize, ThreadFactory threadFactory, Sink sink,
+                      Histogram batchSizes, Timer batchLatency) {
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+        this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.sink = sink;
+        this.batchSizes = batchSizes;
+        this.batchLatency = batchLatency;
+    }
+
+    void setWindowMs(int windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Queues a flow to be blocked.
+     *
+     * @param entry the newly claimed blocked flow
+     */
+    void block(BlockedFlowIndex.Entry entry) {
+        submit(new Decision(entry, true));
+    }
+
+    /**
+     * Queues a flow to be unblocked.
+     *
+     * @param entry the blocked flow, already removed from the index
+     */
+    void unblock(BlockedFlowIndex.Entry entry) {
+        submit(new Decision(entry, false));
+    }
+
+    /**
+     * Submits the decisions gathered so far without waiting for the window to close.
+     */
+    void flushNow() {
+        executor.execute(this::flush);
+    }
+
+    /**
+     * Runs a task on the mitigation thread, after any batch currently being applied.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Applies any pending decisions and stops the batcher.
+     */
+    void shutdown() {
+        executor.execute(this::flush);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("Timed out applying pending mitigations, {} left", pendingCount.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(Decision decision) {
+        pending.add(decision);
+        if (pendingCount.incrementAndGet() >= maxBatchSize) {
+            flushNow();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        final int batchLimit = Math.max(1, maxBatchSize);
+        while (true) {
+            List<BlockedFlowIndex.Entry> blocks = new ArrayList<>();
+            List<BlockedFlowIndex.Entry> unblocks = new ArrayList<>();
+            long firstDecisionNanos = 0;
+            int size = 0;
+            Decision decision;
+            while (size < batchLimit && (decision = pending.poll()) != null) {
+                if (size == 0) {
+                    firstDecisionNanos = decision.madeNanos;
+                }
+                (decision.block ? blocks : unblocks).add(decision.entry);
+                size++;
+            }
+            if (size == 0) {
+                return;
+            }
+            pendingCount.addAndGet(-size);
+            try {
+                sink.apply(blocks, unblocks);
+            } catch (RuntimeException e) {
+                log.error("Exception while applying {} mitigation decisions", size, e);
+            }
+            batchSizes.update(size);
+            batchLatency.update(System.nanoTime() - firstDecisionNanos, TimeUnit.NANOSECONDS);
+            if (pendingCount.get() < batchLimit) {
+                // Leave the remainder for the next window
+                if (pendingCount.get() > 0) {
+                    scheduleFlush();
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+/**
+ * Constants for default values of configurable properties.
+ */
+public final class OsgiPropertyConstants {
+
+    private OsgiPropertyConstants() {
+    }
+
+    public static final String REPORT_BUFFER_BYTES = "reportBufferBytes";
+    public static final int REPORT_BUFFER_BYTES_DEFAULT = 8 * 1024 * 1024;
+
+    public static final String REPORT_RETENTION_SECONDS = "reportRetentionSeconds";
+    public static final int REPORT_RETENTION_SECONDS_DEFAULT = 0;
+
+    public static final String DECODE_MODE = "decodeMode";
+    public static final String DECODE_MODE_FLYWEIGHT = "flyweight";
+    public static final String DECODE_MODE_LEGACY = "legacy";
+    public static final String DECODE_MODE_DEFAULT = DECODE_MODE_FLYWEIGHT;
+
+    public static final String INGEST_SHARDS = "ingestShards";
+    public static final int INGEST_SHARDS_DEFAULT = 4;
+
+    public static final String INGEST_QUEUE_CAPACITY = "ingestQueueCapacity";
+    public static final int INGEST_QUEUE_CAPACITY_DEFAULT = 4096;
+
+    public static final String MITIGATION_BATCH_WINDOW_MS = "mitigationBatchWindowMs";
+    public static final int MITIGATION_BATCH_WINDOW_MS_DEFAULT = 20;
+
+    public static final String MITIGATION_BATCH_SIZE = "mitigationBatchSize";
+    public static final int MITIGATION_BATCH_SIZE_DEFAULT = 256;
+
+    public static final String MITIGATION_BACKEND = "mitigationBackend";
+    public static final String MITIGATION_BACKEND_POLICY = "policy";
+    public static final String MITIGATION_BACKEND_ACL = "acl";
+    public static final String MITIGATION_BACKEND_DEFAULT = MITIGATION_BACKEND_POLICY;
+
+    public static final String REPORT_LOG_ENABLED = "reportLogEnabled";
+    public static final boolean REPORT_LOG_ENABLED_DEFAULT = true;
+
+    public static final String REPORT_LOG_SEGMENT_MB = "reportLogSegmentMb";
+    public static final int REPORT_LOG_SEGMENT_MB_DEFAULT = 64;
+
+    public static final String REPORT_LOG_RETENTION_MB = "reportLogRetentionMb";
+    public static final int REPORT_LOG_RETENTION_MB_DEFAULT = 1024;
+
+    public static final String REPORT_LOG_RETENTION_MINUTES = "reportLogRetentionMinutes";
+    public static final int REPORT_LOG_RETENTION_MINUTES_DEFAULT = 24 * 60;
+
+    public static final String HEAVY_HITTER_CAPACITY = "heavyHitterCapacity";
+    public static final int HEAVY_HITTER_CAPACITY_DEFAULT = 256;
+
+    public static final String FLOW_TABLE_CAPACITY = "flowTableCapacity";
+    public static final int FLOW_TABLE_CAPACITY_DEFAULT = 16384;
+
+    public static final String TRIGGER_REPORT_BUDGET = "triggerReportBudget";
+    public static final int TRIGGER_REPORT_BUDGET_DEFAULT = 0;
+
+    public static final String TRIGGER_CONTROL_INTERVAL_MS = "triggerControlIntervalMs";
+    public static final int TRIGGER_CONTROL_INTERVAL_MS_DEFAULT = 1000;
+
+    public static final String ADMISSION_RATE = "admissionRate";
+    public static final int ADMISSION_RATE_DEFAULT = 0;
+
+    public static final String ADMISSION_BURST = "admissionBurst";
+    public static final int ADMISSION_BURST_DEFAULT = 1000;
+
+    public static final String ADMISSION_SAMPLE_ONE_IN = "admissionSampleOneIn";
+    public static final int ADMISSION_SAMPLE_ONE_IN_DEFAULT = 100;
+}
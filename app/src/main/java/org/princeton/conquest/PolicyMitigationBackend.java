@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.TpPort;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.segmentrouting.policy.api.DropPolicy;
+import org.onosproject.segmentrouting.policy.api.PolicyId;
+import org.onosproject.segmentrouting.policy.api.PolicyService;
+import org.onosproject.segmentrouting.policy.api.TrafficMatch;
+import org.onosproject.segmentrouting.policy.api.TrafficMatchId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Blocks flows with segment routing drop policies. The policy service distributes each block to every device in the
+ * fabric.
+ */
+final class PolicyMitigationBackend implements MitigationBackend {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final PolicyService policyService;
+    private final Map<BlockedFlowIndex.Entry, TrafficMatchId> trafficMatches = new HashMap<>();
+    private PolicyId blockingPolicyId;
+
+    PolicyMitigationBackend(PolicyService policyService) {
+        this.policyService = policyService;
+    }
+
+    @Override
+    public void activate() {
+        blockingPolicyId = policyService.addOrUpdatePolicy(new DropPolicy());
+    }
+
+    @Override
+    public void deactivate() {
+        trafficMatches.values().forEach(policyService::removeTrafficMatch);
+        trafficMatches.clear();
+        policyService.removePolicy(blockingPolicyId);
+    }
+
+    @Override
+    public void block(List<BlockedFlowIndex.Entry> entries) {
+        for (BlockedFlowIndex.Entry entry : entries) {
+            TrafficSelector trafficSelector = buildSelector(entry.key());
+            log.debug("Adding traffic match {}", trafficSelector);
+            trafficMatches.put(entry, policyService.addOrUpdateTrafficMatch(
+                    new TrafficMatch(trafficSelector, blockingPolicyId)));
+        }
+    }
+
+    @Override
+    public void unblock(List<BlockedFlowIndex.Entry> entries) {
+        for (BlockedFlowIndex.Entry entry : entries) {
+            TrafficMatchId trafficMatchId = trafficMatches.remove(entry);
+            if (trafficMatchId != null) {
+                policyService.removeTrafficMatch(trafficMatchId);
+            }
+        }
+    }
+
+    /**
+     * Builds a selector matching exactly the given 5-tuple.
+     *
+     * @param key a TCP or UDP flow
+     * @return the selector
+     */
+    static TrafficSelector buildSelector(FlowKey key) {
+        var trafficSelectorBuilder = DefaultTrafficSelector.builder()
+                .matchIPProtocol(key.protocol())
+                .matchIPSrc(IpPrefix.valueOf(Ip4Address.valueOf(key.srcIp()), 32))
+                .matchIPDst(IpPrefix.valueOf(Ip4Address.valueOf(key.dstIp()), 32));
+
+        TpPort srcPort = TpPort.tpPort(key.srcPort());
+        TpPort dstPort = TpPort.tpPort(key.dstPort());
+
+        if (key.protocol() == Constants.PROTO_TCP) {
+            trafficSelectorBuilder
+                    .matchTcpSrc(srcPort)
+                    .matchTcpDst(dstPort);
+        } else if (key.protocol() == Constants.PROTO_UDP) {
+            trafficSelectorBuilder
+                    .matchUdpSrc(srcPort)
+                    .matchUdpDst(dstPort);
+        }
+        return trafficSelectorBuilder.build();
+    }
+}
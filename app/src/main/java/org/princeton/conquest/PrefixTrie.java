@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.packet.Ip4Prefix;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable binary trie over IPv4 prefixes, compiled into flat arrays.
+ * <p>
+ * A lookup walks at most one node per address bit, so it costs O(32) regardless of the number of prefixes. Tries
+ * are built once from a full prefix list and never modified; callers replace the whole trie to change its contents.
+ */
+final class PrefixTrie {
+
+    static final PrefixTrie EMPTY = build(List.of());
+
+    private static final int NO_MATCH = -1;
+
+    // Node n's children are at 2n (bit 0) and 2n + 1 (bit 1); 0 means no child since the root is never a child
+    private final int[] children;
+    // Index into prefixes of the prefix ending at each node, or NO_MATCH
+    private final int[] matches;
+    private final Ip4Prefix[] prefixes;
+
+    private PrefixTrie(int[] children, int[] matches, Ip4Prefix[] prefixes) {
+        this.children = children;
+        this.matches = matches;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * Compiles a trie from a collection of prefixes. Duplicates are ignored.
+     *
+     * @param prefixes the prefixes to include
+     * @return a new trie
+     */
+    static PrefixTrie build(Collection<Ip4Prefix> prefixes) {
+        final Set<Ip4Prefix> unique = new LinkedHashSet<>(prefixes);
+        final Ip4Prefix[] prefixArray = unique.toArray(new Ip4Prefix[0]);
+
+        int[] children = new int[64];
+        int[] matches = new int[32];
+        Arrays.fill(matches, NO_MATCH);
+        int nodeCount = 1;
+
+        for (int i = 0; i < prefixArray.length; i++) {
+            final int address = prefixArray[i].address().toInt();
+            final int length = prefixArray[i].prefixLength();
+            int node = 0;
+            for (int depth = 0; depth < length; depth++) {
+                final int slot = 2 * node + ((address >>> (31 - depth)) & 1);
+                if (children[slot] == 0) {
+                    if (nodeCount == matches.length) {
+                        children = Arrays.copyOf(children, children.length * 2);
+                        matches = Arrays.copyOf(matches, matches.length * 2);
+                        Arrays.fill(matches, nodeCount, matches.length, NO_MATCH);
+                    }
+                    children[slot] = nodeCount++;
+                }
+                node = children[slot];
+            }
+            matches[node] = i;
+        }
+        return new PrefixTrie(Arrays.copyOf(children, 2 * nodeCount), Arrays.copyOf(matches, nodeCount),
+                              prefixArray);
+    }
+
+    /**
+     * Finds the longest prefix containing the given address.
+     *
+     * @param address IPv4 address as an integer
+     * @return the longest matching prefix, or null if no prefix contains the address
+     */
+    Ip4Prefix longestMatch(int address) {
+        int best = matches[0];
+        int node = 0;
+        for (int depth = 0; depth < Integer.SIZE; depth++) {
+            node = children[2 * node + ((address >>> (31 - depth)) & 1)];
+            if (node == 0) {
+                break;
+            }
+            if (matches[node] != NO_MATCH) {
+                best = matches[node];
+            }
+        }
+        return best == NO_MATCH ? null : prefixes[best];
+    }
+
+    boolean isEmpty() {
+        return prefixes.length == 0;
+    }
+
+    int size() {
+        return prefixes.length;
+    }
+
+    /**
+     * Returns the prefixes in this trie.
+     *
+     * @return the prefixes, in insertion order
+     */
+    List<Ip4Prefix> prefixes() {
+        return List.of(prefixes);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable block of reports read from the report store by a {@link ReportCursor}.
+ * <p>
+ * Reports are held as primitive records, so reading a chunk creates no objects. Reports can be encoded straight from
+ * the records as newline-delimited JSON, or turned into {@link ConQuestReport} objects one at a time.
+ */
+public final class ReportChunk {
+
+    // Longest possible JSON line: dotted quads, five-digit ports, a PROTO:nnn protocol, 32-bit queue size and a
+    // negative 19-digit timestamp
+    private static final int MAX_JSON_LINE_BYTES = 192;
+
+    private static final byte[] SRC_IP = ascii("{\"srcIp\":\"");
+    private static final byte[] DST_IP = ascii("\",\"dstIp\":\"");
+    private static final byte[] SRC_PORT = ascii("\",\"srcPort\":");
+    private static final byte[] DST_PORT = ascii(",\"dstPort\":");
+    private static final byte[] PROTOCOL = ascii(",\"protocol\":\"");
+    private static final byte[] QUEUE_SIZE = ascii("\",\"queueSize\":");
+    private static final byte[] TIMESTAMP = ascii(",\"timestamp\":");
+    private static final byte[] END = ascii("}\n");
+    private static final byte[][] PROTOCOL_NAMES = new byte[256][];
+
+    static {
+        for (int protocol = 0; protocol < PROTOCOL_NAMES.length; protocol++) {
+            PROTOCOL_NAMES[protocol] = ascii(ConQuestReport.protocolString((byte) protocol));
+        }
+    }
+
+    private final int capacity;
+    final long[] records;
+    int size;
+    private ByteBuffer json;
+
+    /**
+     * Creates an empty chunk.
+     *
+     * @param capacity maximum number of reports the chunk holds
+     */
+    public ReportChunk(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.records = new long[this.capacity * ReportRingBuffer.RECORD_WORDS];
+    }
+
+    /**
+     * Returns the maximum number of reports the chunk holds.
+     *
+     * @return chunk capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of reports in the chunk.
+     *
+     * @return number of reports
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the report at an index as a report object.
+     *
+     * @param index index of the report in the chunk
+     * @return the report
+     */
+    public ConQuestReport report(int index) {
+        return ReportRingBuffer.toReport(records, index * ReportRingBuffer.RECORD_WORDS);
+    }
+
+    /**
+     * Encodes the reports in the chunk as newline-delimited JSON, one object per report with the fields
+     * {@code srcIp}, {@code dstIp}, {@code srcPort}, {@code dstPort}, {@code protocol}, {@code queueSize} and
+     * {@code timestamp}, the receive time in epoch milliseconds. The returned buffer is reused by the next call.
+     *
+     * @return a buffer holding the encoded reports, ready to be read
+     */
+    public ByteBuffer toJsonLines() {
+        if (json == null) {
+            json = ByteBuffer.allocate(capacity * MAX_JSON_LINE_BYTES);
+        }
+        json.clear();
+        for (int i = 0; i < size; i++) {
+            final int base = i * ReportRingBuffer.RECORD_WORDS;
+            final long addresses = records[base];
+            final long ports = records[base + 1];
+            json.put(SRC_IP);
+            putAddress((int) (addresses >>> 32));
+            json.put(DST_IP);
+            putAddress((int) addresses);
+            json.put(SRC_PORT);
+            putDecimal((ports >>> 24) & 0xffff);
+            json.put(DST_PORT);
+            putDecimal((ports >>> 8) & 0xffff);
+            json.put(PROTOCOL);
+            json.put(PROTOCOL_NAMES[(int) (ports & 0xff)]);
+            json.put(QUEUE_SIZE);
+            putDecimal(records[base + 2]);
+            json.put(TIMESTAMP);
+            putDecimal(records[base + 3]);
+            json.put(END);
+        }
+        return json.flip();
+    }
+
+    private void putAddress(int address) {
+        putDecimal(address >>> 24);
+        json.put((byte) '.');
+        putDecimal((address >>> 16) & 0xff);
+        json.put((byte) '.');
+        putDecimal((address >>> 8) & 0xff);
+        json.put((byte) '.');
+        putDecimal(address & 0xff);
+    }
+
+    private void putDecimal(long value) {
+        if (value < 0) {
+            json.put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                json.put(ascii(Long.toString(value).substring(1)));
+                return;
+            }
+            value = -value;
+        }
+        final int start = json.position();
+        do {
+            json.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        // Digits were written least significant first
+        for (int i = start, j = json.position() - 1; i < j; i++, j--) {
+            byte digit = json.get(i);
+            json.put(i, json.get(j));
+            json.put(j, digit);
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic epoch clock used to timestamp received reports.
+ * <p>
+ * The time returned never goes backwards: if the wall clock is stepped back, the clock holds its last value until the
+ * wall clock catches up again, which keeps the reports in the store ordered by time. The last value is only written
+ * when the wall clock has moved on, so concurrent callers mostly share a cache line that is read, not written.
+ */
+final class ReportClock {
+
+    private final AtomicLong lastMillis = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Returns the current time.
+     *
+     * @return epoch time in milliseconds
+     */
+    long millis() {
+        final long wallMillis = System.currentTimeMillis();
+        long last = lastMillis.get();
+        while (wallMillis > last) {
+            if (lastMillis.compareAndSet(last, wallMillis)) {
+                return wallMillis;
+            }
+            last = lastMillis.get();
+        }
+        return last;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+/**
+ * Reads the reports that were in the report store when the cursor was opened, oldest first, a chunk at a time.
+ * <p>
+ * The cursor reads the store without locking or copying it as a whole. Reports that arrive after the cursor was
+ * opened are not returned. Reports overwritten or cleared before the cursor reaches them are skipped and counted.
+ */
+public final class ReportCursor {
+
+    private final ReportRingBuffer store;
+    private final long end;
+    private long next;
+    private long skipped;
+
+    ReportCursor(ReportRingBuffer store) {
+        this.store = store;
+        this.next = store.firstSequence();
+        this.end = store.nextSequence();
+    }
+
+    /**
+     * Fills a chunk with the next reports, replacing its previous contents.
+     *
+     * @param chunk the chunk to fill
+     * @return false if there were no more reports, in which case the chunk is left empty
+     */
+    public boolean next(ReportChunk chunk) {
+        chunk.size = 0;
+        while (next < end && chunk.size < chunk.capacity()) {
+            final long first = store.firstSequence();
+            if (next < first) {
+                skipped += Math.min(first, end) - next;
+                next = first;
+                continue;
+            }
+            if (store.read(next++, chunk.records, chunk.size * ReportRingBuffer.RECORD_WORDS)) {
+                chunk.size++;
+            } else {
+                skipped++;
+            }
+        }
+        return chunk.size > 0;
+    }
+
+    /**
+     * Returns the number of reports that were dropped from the store before the cursor could read them.
+     *
+     * @return number of skipped reports
+     */
+    public long skipped() {
+        return skipped;
+    }
+}
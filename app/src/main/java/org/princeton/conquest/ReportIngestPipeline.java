@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onosproject.net.packet.PacketContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Moves ConQuest report processing off the packet dispatch thread onto a fixed set of worker shards.
+ * <p>
+ * Each packet is assigned to a shard by a hash of the reported flow's 5-tuple, so all reports for a flow are handled
+ * by the same thread in arrival order and per-flow state has a single writer. Each shard has a bounded queue; when a
+ * queue is full the packet is dropped and counted rather than stalling the dispatcher.
+ * <p>
+ * A pipeline that replaces another one holds its packets until the old workers have drained their queues, so a flow
+ * is never handled by two threads at once, even across a restart.
+ */
+final class ReportIngestPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportIngestPipeline.class);
+
+    private static final long POLL_INTERVAL_MS = 100;
+    // How long shutdown, or a replacing pipeline, waits for the workers to drain their queues
+    static final long DRAIN_TIMEOUT_MS = 2000;
+
+    private final Shard[] shards;
+    private final Thread[] workers;
+    private final ObjIntConsumer<PacketContext> handler;
+    // Pipeline being replaced, whose workers must finish before these start; null once they have
+    private volatile ReportIngestPipeline predecessor;
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts an ingest pipeline.
+     *
+     * @param shardCount    number of worker shards
+     * @param queueCapacity maximum number of pending packets per shard
+     * @param threadFactory factory for the shard worker threads
+     * @param handler       processing applied to each packet on its shard's thread, given the packet and the shard
+     *                      index so per-shard state can be kept across pipeline restarts
+     * @param predecessor   pipeline this one replaces, which the caller shuts down; packets are queued but not
+     *                      processed until its workers have finished. Null if there is none
+     */
+    ReportIngestPipeline(int shardCount, int queueCapacity, ThreadFactory threadFactory,
+                         ObjIntConsumer<PacketContext> handler, ReportIngestPipeline predecessor) {
+        checkArgument(shardCount > 0, "shardCount must be positive");
+        checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+        this.handler = handler;
+        this.predecessor = predecessor;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, queueCapacity);
+        }
+        this.workers = new Thread[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            workers[i] = threadFactory.newThread(shards[i]);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Mixes the fields of a 5-tuple into a well-distributed hash.
+     *
+     * @param srcIp    source IPv4 address
+     * @param dstIp    destination IPv4 address
+     * @param srcPort  source L4 port
+     * @param dstPort  destination L4 port
+     * @param protocol IP protocol
+     * @return hash of the 5-tuple
+     */
+    static int flowHash(int srcIp, int dstIp, short srcPort, short dstPort, byte protocol) {
+        long h = ((long) srcIp << 32) ^ (dstIp & 0xffffffffL);
+        h ^= ((long) (srcPort & 0xffff) << 24) ^ ((dstPort & 0xffff) << 8) ^ (protocol & 0xff);
+        // Finalizer from MurmurHash3
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Queues a packet on the shard owning the given flow hash.
+     *
+     * @param flowHash hash of the reported flow's 5-tuple
+     * @param context  the packet to process
+     * @return false if the pipeline is shut down or the shard's queue was full, and the packet was dropped
+     */
+    boolean submit(int flowHash, PacketContext context) {
+        Shard shard = shards[Math.floorMod(flowHash, shards.length)];
+        if (running && shard.queue.offer(context)) {
+            // The worker exits once it finds the pipeline stopped and its queue empty; a packet queued after that
+            // would never be processed, so take it back unless the worker already has
+            if (running || !shard.queue.remove(context)) {
+                return true;
+            }
+        }
+        shard.dropped.increment();
+        return false;
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the number of packets waiting in a shard's queue.
+     *
+     * @param shard shard index
+     * @return current queue depth
+     */
+    int queueDepth(int shard) {
+        return shards[shard].queue.size();
+    }
+
+    /**
+     * Returns the number of packets dropped because a shard's queue was full or the pipeline was shut down.
+     *
+     * @param shard shard index
+     * @return number of dropped packets
+     */
+    long droppedCount(int shard) {
+        return shards[shard].dropped.sum();
+    }
+
+    /**
+     * Stops accepting work. Packets already queued are still processed before the workers exit.
+     */
+    void shutdown() {
+        running = false;
+    }
+
+    /**
+     * Waits for the workers to finish the packets already queued after {@link #shutdown()}. Workers still busy when
+     * the timeout expires are interrupted, abandoning the rest of their queue, so that no report reaches downstream
+     * components after this returns.
+     *
+     * @param timeoutMillis how long to wait for the queues to drain
+     */
+    synchronized void awaitTermination(long timeoutMillis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            for (Thread worker : workers) {
+                worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+            for (int i = 0; i < workers.length; i++) {
+                if (workers[i].isAlive()) {
+                    log.warn("Ingest shard {} did not drain within {}ms, {} reports left", i, timeoutMillis,
+                             shards[i].queue.size());
+                    workers[i].interrupt();
+                    workers[i].join(timeoutMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class Shard implements Runnable {
+        private final int index;
+        private final BlockingQueue<PacketContext> queue;
+        private final LongAdder dropped = new LongAdder();
+
+        private Shard(int index, int queueCapacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        @Override
+        public void run() {
+            final ReportIngestPipeline previous = predecessor;
+            if (previous != null) {
+                // Flows may have moved between shards; keep each one on a single thread while the old queues drain
+                previous.awaitTermination(DRAIN_TIMEOUT_MS);
+                predecessor = null;
+            }
+            while (running || !queue.isEmpty()) {
+                PacketContext context;
+                try {
+                    context = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (context == null) {
+                    continue;
+                }
+                try {
+                    handler.accept(context, index);
+                } catch (RuntimeException e) {
+                    log.error("Exception while processing ConQuest report", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Durable, append-only log of received ConQuest reports.
+ * <p>
+ * Reports are stored as fixed-size records, in the same layout as {@link ReportRingBuffer}, in a directory of segment
+ * files written through memory mappings. Ingest threads append reports to a bounded lock-free queue without allocating
+ * or taking a lock; a single writer thread drains the queue into the mapped active segment every few milliseconds.
+ * If the writer falls a whole queue behind, new reports are dropped from the log rather than holding up ingestion.
+ * Full segments are closed and a new one is started; the oldest segments are deleted once the log grows past its
+ * size or age limit.
+ * <p>
+ * Segments left by a previous run are only mapped when they are first read, so opening a large log is cheap and its
+ * history is readable straight away without being loaded onto the heap.
+ */
+final class ReportLog {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int TIMESTAMP_OFFSET = 3 * Long.BYTES;
+
+    private static final int PENDING_RECORDS = 1 << 17;
+    private static final int PENDING_MASK = PENDING_RECORDS - 1;
+    private static final long DRAIN_INTERVAL_MS = 10;
+    private static final long CLOSE_TIMEOUT_MS = 1000;
+
+    /**
+     * A segment file. Segments are named after the sequence number of their first record.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long baseSequence;
+        private final int capacity;
+
+        private volatile MappedByteBuffer buffer;
+        private volatile boolean recovered;
+        // Number of records written; a volatile write publishes each record to readers
+        private volatile int count;
+        private volatile long firstMillis;
+        private volatile long lastMillis;
+
+        private Segment(Path path, long baseSequence, int capacity) {
+            this.path = path;
+            this.baseSequence = baseSequence;
+            this.capacity = capacity;
+        }
+
+        private long bytes() {
+            return (long) capacity * ReportRingBuffer.RECORD_BYTES;
+        }
+
+        private long timestampAt(MappedByteBuffer buf, int index) {
+            return buf.getLong(index * ReportRingBuffer.RECORD_BYTES + TIMESTAMP_OFFSET);
+        }
+
+        /**
+         * Maps a segment written by a previous run and finds how many records it holds. Records are written in
+         * order into a zero-filled file and every record has a non-zero timestamp, so the written records form a
+         * prefix that can be found by binary search.
+         */
+        private synchronized void recover() throws IOException {
+            if (recovered) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes());
+            }
+            int low = 0;
+            int high = capacity;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestampAt(buffer, mid) != 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low > 0) {
+                firstMillis = timestampAt(buffer, 0);
+                lastMillis = timestampAt(buffer, low - 1);
+            }
+            count = low;
+            recovered = true;
+        }
+    }
+
+    private final Path directory;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    // Reports waiting for the writer, and the sequence number of the report held by each slot
+    private final long[] pending = new long[PENDING_RECORDS * ReportRingBuffer.RECORD_WORDS];
+    private final AtomicLongArray pendingSequences = new AtomicLongArray(PENDING_RECORDS);
+    // Next sequence number to hand to an appending thread, and next one the writer will take
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long drained;
+    private final LongAdder dropped = new LongAdder();
+    private final ScheduledExecutorService writer;
+    private volatile boolean closed;
+
+    // Guarded by this
+    private Segment active;
+    private MappedByteBuffer activeBuffer;
+    private long nextSequence;
+    private long failedAppends;
+
+    private volatile int segmentRecords;
+    private volatile long retentionBytes;
+    private volatile long retentionMillis;
+
+    private ReportLog(Path directory, ThreadFactory threadFactory) {
+        this.directory = directory;
+        for (int i = 0; i < PENDING_RECORDS; i++) {
+            pendingSequences.set(i, -1);
+        }
+        this.writer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * Opens the report log in a directory, creating the directory if needed. Segments left by a previous run are
+     * picked up but not mapped until they are read.
+     *
+     * @param directory       directory holding the segment files
+     * @param segmentBytes    size of each new segment file
+     * @param retentionBytes  total size of the segments to keep
+     * @param retentionMillis age of the newest report in a segment after which the segment is deleted
+     * @param threadFactory   factory for the writer thread
+     * @return the opened log
+     * @throws IOException if the directory cannot be created or listed
+     */
+    static ReportLog open(Path directory, long segmentBytes, long retentionBytes, long retentionMillis,
+                          ThreadFactory threadFactory) throws IOException {
+        Files.createDirectories(directory);
+        ReportLog reportLog = new ReportLog(directory, threadFactory);
+        reportLog.configure(segmentBytes, retentionBytes, retentionMillis);
+
+        List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    int capacity = (int) (Files.size(file) / ReportRingBuffer.RECORD_BYTES);
+                    found.add(new Segment(file, base, capacity));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in report log", file);
+                }
+            }
+        }
+        found.sort(Comparator.comparingLong(segment -> segment.baseSequence));
+        reportLog.segments.addAll(found);
+        if (!found.isEmpty()) {
+            Segment last = found.get(found.size() - 1);
+            last.recover();
+            reportLog.nextSequence = last.baseSequence + last.count;
+        }
+        reportLog.writer.scheduleWithFixedDelay(reportLog::drain, DRAIN_INTERVAL_MS, DRAIN_INTERVAL_MS,
+                                                TimeUnit.MILLISECONDS);
+        log.info("Opened report log in {} with {} segments", directory, found.size());
+        return reportLog;
+    }
+
+    /**
+     * Changes the size of new segments and the retention limits.
+     *
+     * @param segmentBytes    size of each new segment file
+     * @param retentionBytes  total size of the segments to keep
+     * @param retentionMillis age of the newest report in a segment after which the segment is deleted
+     */
+    void configure(long segmentBytes, long retentionBytes, long retentionMillis) {
+        this.segmentRecords = (int) Math.max(1, Math.min(Integer.MAX_VALUE / ReportRingBuffer.RECORD_BYTES,
+                                                         segmentBytes / ReportRingBuffer.RECORD_BYTES));
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Queues a report to be appended to the log. Does nothing once the log is closed.
+     *
+     * @param srcIp           source IPv4 address
+     * @param dstIp           destination IPv4 address
+     * @param srcPort         source L4 port
+     * @param dstPort         destination L4 port
+     * @param protocol        IP protocol
+     * @param queueSize       queue occupancy reported by the switch
+     * @param timestampMillis epoch time in milliseconds at which the report was received; must not be 0
+     */
+    void append(int srcIp, int dstIp, short srcPort, short dstPort, byte protocol, int queueSize,
+                long timestampMillis) {
+        if (closed) {
+            return;
+        }
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - drained >= PENDING_RECORDS) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+        final int base = (int) (seq & PENDING_MASK) * ReportRingBuffer.RECORD_WORDS;
+        pending[base] = ReportRingBuffer.packAddresses(srcIp, dstIp);
+        pending[base + 1] = ReportRingBuffer.packPorts(srcPort, dstPort, protocol);
+        pending[base + 2] = queueSize & 0xffffffffL;
+        pending[base + 3] = timestampMillis;
+        pendingSequences.setRelease((int) (seq & PENDING_MASK), seq);
+    }
+
+    /**
+     * Returns the number of reports left out of the log because the writer fell behind.
+     *
+     * @return number of dropped reports
+     */
+    long droppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the queued reports into the active segment, in the order they were queued.
+     */
+    private synchronized void drain() {
+        try {
+            long seq = drained;
+            while (pendingSequences.getAcquire((int) (seq & PENDING_MASK)) == seq) {
+                final int base = (int) (seq & PENDING_MASK) * ReportRingBuffer.RECORD_WORDS;
+                write(pending[base], pending[base + 1], pending[base + 2], pending[base + 3]);
+                // Frees the slot for appending threads
+                drained = ++seq;
+            }
+        } catch (RuntimeException e) {
+            log.error("Exception while writing the report log", e);
+        }
+    }
+
+    private void write(long addresses, long ports, long queueSize, long timestampMillis) {
+        if (active == null || active.count == active.capacity) {
+            try {
+                roll();
+            } catch (IOException e) {
+                if (failedAppends++ == 0) {
+                    log.warn("Unable to start a report log segment in {}, reports are not being logged",
+                             directory, e);
+                }
+                return;
+            }
+        }
+        final int position = active.count * ReportRingBuffer.RECORD_BYTES;
+        activeBuffer.putLong(position, addresses);
+        activeBuffer.putLong(position + Long.BYTES, ports);
+        activeBuffer.putLong(position + 2 * Long.BYTES, queueSize);
+        activeBuffer.putLong(position + TIMESTAMP_OFFSET, timestampMillis);
+        if (active.count == 0) {
+            active.firstMillis = timestampMillis;
+        }
+        active.lastMillis = timestampMillis;
+        active.count++;
+        nextSequence++;
+    }
+
+    /**
+     * Reads the logged reports received within a time range, oldest first.
+     *
+     * @param fromMillis earliest receive time, inclusive, in epoch milliseconds
+     * @param toMillis   latest receive time, inclusive, in epoch milliseconds
+     * @param limit      maximum number of reports to read
+     * @param sink       receives each report
+     * @return the number of reports read
+     */
+    int read(long fromMillis, long toMillis, int limit, Consumer<ConQuestReport> sink) {
+        final long[] record = new long[ReportRingBuffer.RECORD_WORDS];
+        int read = 0;
+        for (Segment segment : segments) {
+            if (read >= limit) {
+                break;
+            }
+            try {
+                segment.recover();
+            } catch (IOException e) {
+                // Most likely deleted by retention after it was listed
+                log.debug("Skipping unreadable report log segment {}", segment.path, e);
+                continue;
+            }
+            final int count = segment.count;
+            if (count == 0 || segment.lastMillis < fromMillis || segment.firstMillis > toMillis) {
+                continue;
+            }
+            final MappedByteBuffer buffer = segment.buffer;
+            for (int i = 0; i < count && read < limit; i++) {
+                final int position = i * ReportRingBuffer.RECORD_BYTES;
+                final long timestamp = buffer.getLong(position + TIMESTAMP_OFFSET);
+                if (timestamp < fromMillis || timestamp > toMillis) {
+                    continue;
+                }
+                record[0] = buffer.getLong(position);
+                record[1] = buffer.getLong(position + Long.BYTES);
+                record[2] = buffer.getLong(position + 2 * Long.BYTES);
+                record[3] = timestamp;
+                sink.accept(ReportRingBuffer.toReport(record, 0));
+                read++;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Returns the number of reports in the log, mapping any segments that have not been read yet.
+     *
+     * @return number of logged reports
+     */
+    long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            try {
+                segment.recover();
+                size += segment.count;
+            } catch (IOException e) {
+                log.debug("Skipping unreadable report log segment {}", segment.path, e);
+            }
+        }
+        return size;
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Stops accepting reports, writes those already queued, and flushes the active segment to disk. Reports
+     * appended after this are ignored.
+     */
+    void close() {
+        closed = true;
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("Report log writer did not stop within {}ms", CLOSE_TIMEOUT_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            drain();
+            if (activeBuffer != null) {
+                activeBuffer.force();
+            }
+            active = null;
+            activeBuffer = null;
+        }
+    }
+
+    private void roll() throws IOException {
+        if (activeBuffer != null) {
+            activeBuffer.force();
+        }
+        final int capacity = segmentRecords;
+        final Path path = directory.resolve(String.format("%020d%s", nextSequence, SEGMENT_SUFFIX));
+        final Segment segment = new Segment(path, nextSequence, capacity);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Mapping past the end of the file grows it to the full segment size, zero-filled
+            activeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segment.bytes());
+        }
+        segment.buffer = activeBuffer;
+        segment.recovered = true;
+        active = segment;
+        segments.add(segment);
+        applyRetention();
+    }
+
+    private void applyRetention() {
+        long totalBytes = 0;
+        for (Segment segment : segments) {
+            totalBytes += segment.bytes();
+        }
+        final long oldestKeptMillis = System.currentTimeMillis() - retentionMillis;
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            try {
+                oldest.recover();
+            } catch (IOException e) {
+                log.debug("Unable to read report log segment {}", oldest.path, e);
+            }
+            if (totalBytes <= retentionBytes && oldest.lastMillis >= oldestKeptMillis) {
+                break;
+            }
+            segments.remove(0);
+            totalBytes -= oldest.bytes();
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                log.warn("Unable to delete report log segment {}", oldest.path, e);
+            }
+        }
+    }
+}
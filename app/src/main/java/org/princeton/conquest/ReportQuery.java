@@ -0,0 +1,268 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.packet.Ip4Prefix;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Selects stored ConQuest reports by flow fields and receive time, and pages through the matches.
+ * <p>
+ * Queries are evaluated against the packed report records, so reports that do not match are never turned into
+ * objects. A query that names a single 5-tuple is answered from the per-flow index of the report store, and a query
+ * with a time range only scans the part of the store received within that range.
+ */
+public final class ReportQuery {
+
+    private static final int ANY = -1;
+
+    private final int srcAddress;
+    private final int srcMask;
+    private final int dstAddress;
+    private final int dstMask;
+    private final int srcPort;
+    private final int dstPort;
+    private final int protocol;
+    private final long fromMillis;
+    private final long toMillis;
+    private final int offset;
+    private final int limit;
+
+    private ReportQuery(Builder builder) {
+        this.srcAddress = builder.srcAddress & builder.srcMask;
+        this.srcMask = builder.srcMask;
+        this.dstAddress = builder.dstAddress & builder.dstMask;
+        this.dstMask = builder.dstMask;
+        this.srcPort = builder.srcPort;
+        this.dstPort = builder.dstPort;
+        this.protocol = builder.protocol;
+        this.fromMillis = builder.fromMillis;
+        this.toMillis = builder.toMillis;
+        this.offset = builder.offset;
+        this.limit = builder.limit;
+    }
+
+    /**
+     * Returns a new query builder. Without further options the query matches every report.
+     *
+     * @return a query builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the earliest receive time of the matching reports.
+     *
+     * @return epoch milliseconds, inclusive
+     */
+    public long fromMillis() {
+        return fromMillis;
+    }
+
+    /**
+     * Returns the latest receive time of the matching reports.
+     *
+     * @return epoch milliseconds, inclusive
+     */
+    public long toMillis() {
+        return toMillis;
+    }
+
+    /**
+     * Returns the number of matching reports skipped before the first one returned.
+     *
+     * @return number of reports to skip
+     */
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * Returns the maximum number of reports returned.
+     *
+     * @return maximum number of reports
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Returns whether the query names exactly one 5-tuple, so it can be answered from the per-flow index.
+     *
+     * @return true if every field of the 5-tuple is fixed
+     */
+    boolean isSingleFlow() {
+        return srcMask == -1 && dstMask == -1 && srcPort != ANY && dstPort != ANY && protocol != ANY;
+    }
+
+    /**
+     * Returns the hash of the 5-tuple named by a single-flow query.
+     *
+     * @return flow hash
+     */
+    int flowHash() {
+        return ReportIngestPipeline.flowHash(srcAddress, dstAddress, (short) srcPort, (short) dstPort,
+                                             (byte) protocol);
+    }
+
+    /**
+     * Tests a packed report record against the query.
+     *
+     * @param addresses       packed source and destination addresses
+     * @param ports           packed ports and protocol
+     * @param timestampMillis receive time of the report
+     * @return true if the report matches
+     */
+    boolean matches(long addresses, long ports, long timestampMillis) {
+        return timestampMillis >= fromMillis && timestampMillis <= toMillis
+                && ((int) (addresses >>> 32) & srcMask) == srcAddress
+                && ((int) addresses & dstMask) == dstAddress
+                && (srcPort == ANY || ((ports >>> 24) & 0xffff) == srcPort)
+                && (dstPort == ANY || ((ports >>> 8) & 0xffff) == dstPort)
+                && (protocol == ANY || (ports & 0xff) == protocol);
+    }
+
+    /**
+     * Builder of report queries.
+     */
+    public static final class Builder {
+        private int srcAddress;
+        private int srcMask;
+        private int dstAddress;
+        private int dstMask;
+        private int srcPort = ANY;
+        private int dstPort = ANY;
+        private int protocol = ANY;
+        private long fromMillis = Long.MIN_VALUE;
+        private long toMillis = Long.MAX_VALUE;
+        private int offset;
+        private int limit = Integer.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        /**
+         * Only matches reports whose source address is in a prefix.
+         *
+         * @param prefix source prefix
+         * @return this builder
+         */
+        public Builder srcPrefix(Ip4Prefix prefix) {
+            srcAddress = prefix.address().toInt();
+            srcMask = mask(prefix.prefixLength());
+            return this;
+        }
+
+        /**
+         * Only matches reports whose destination address is in a prefix.
+         *
+         * @param prefix destination prefix
+         * @return this builder
+         */
+        public Builder dstPrefix(Ip4Prefix prefix) {
+            dstAddress = prefix.address().toInt();
+            dstMask = mask(prefix.prefixLength());
+            return this;
+        }
+
+        /**
+         * Only matches reports with a source L4 port.
+         *
+         * @param port source port
+         * @return this builder
+         */
+        public Builder srcPort(int port) {
+            checkArgument(port >= 0 && port <= 0xffff, "Invalid port");
+            srcPort = port;
+            return this;
+        }
+
+        /**
+         * Only matches reports with a destination L4 port.
+         *
+         * @param port destination port
+         * @return this builder
+         */
+        public Builder dstPort(int port) {
+            checkArgument(port >= 0 && port <= 0xffff, "Invalid port");
+            dstPort = port;
+            return this;
+        }
+
+        /**
+         * Only matches reports with an IP protocol.
+         *
+         * @param ipProtocol IP protocol number
+         * @return this builder
+         */
+        public Builder protocol(byte ipProtocol) {
+            protocol = ipProtocol & 0xff;
+            return this;
+        }
+
+        /**
+         * Only matches reports received within a time range.
+         *
+         * @param from earliest receive time, inclusive, in epoch milliseconds
+         * @param to   latest receive time, inclusive, in epoch milliseconds
+         * @return this builder
+         */
+        public Builder timeRange(long from, long to) {
+            fromMillis = from;
+            toMillis = to;
+            return this;
+        }
+
+        /**
+         * Skips a number of matching reports, oldest first, before returning any.
+         *
+         * @param skip number of matching reports to skip
+         * @return this builder
+         */
+        public Builder offset(int skip) {
+            checkArgument(skip >= 0, "Offset must not be negative");
+            offset = skip;
+            return this;
+        }
+
+        /**
+         * Limits the number of reports returned.
+         *
+         * @param max maximum number of reports
+         * @return this builder
+         */
+        public Builder limit(int max) {
+            checkArgument(max >= 0, "Limit must not be negative");
+            limit = max;
+            return this;
+        }
+
+        /**
+         * Builds the query.
+         *
+         * @return the query
+         */
+        public ReportQuery build() {
+            return new ReportQuery(this);
+        }
+
+        private static int mask(int prefixLength) {
+            return prefixLength == 0 ? 0 : -1 << (Integer.SIZE - prefixLength);
+        }
+    }
+}
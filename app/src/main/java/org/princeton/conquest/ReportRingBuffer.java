@@ -0,0 +1,489 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-capacity store of received ConQuest reports.
+ * <p>
+ * Reports are packed into fixed-size records in a single primitive array, so the memory used by the store is
+ * bounded by its capacity no matter how many reports arrive. Any number of threads may append concurrently without
+ * locking; once the store is full the oldest records are overwritten. Readers copy records out under a per-slot
+ * sequence check and skip any record that is overwritten while being read, so reads never hold up ingestion.
+ * <p>
+ * Two indexes are kept up to date as reports are appended, so that queries do not have to scan the whole store. The
+ * per-flow index chains each record to the previous record whose flow hashes to the same bucket; a query for one
+ * 5-tuple walks that chain and reads only the reports of that flow and its rare hash collisions. The per-flow index
+ * is updated without locking.
+ * <p>
+ * Records are also grouped into time segments, one per second of receive time, each described by the sequence number
+ * of its first record. A query for a time range only scans the segments overlapping the range. Time-based retention
+ * releases the records of a whole segment at once by moving the floor of the store past it, so expiring old reports
+ * costs the same however many reports a segment holds.
+ */
+final class ReportRingBuffer {
+
+    static final int RECORD_WORDS = 4;
+    static final int RECORD_BYTES = RECORD_WORDS * Long.BYTES;
+    // Flow index head and chain link kept for each record
+    static final int INDEX_BYTES = 2 * Long.BYTES;
+
+    static final long SEGMENT_MS = 1000;
+    // Number of segments described at once; older segments are still readable but no longer skipped by queries
+    private static final int SEGMENTS = 1 << 16;
+    private static final int SEGMENT_MASK = SEGMENTS - 1;
+    // Reports appended concurrently may be stored slightly out of receive-time order; time range scans widen by this
+    // many records on each side to make up for it
+    private static final int ORDER_SLACK = 1024;
+
+    // Slot sequence markers. Published slots hold the (non-negative) sequence number of the record they contain.
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long WRITING = -1L;
+    // Flow index chain markers
+    private static final long NO_LINK = -1L;
+    private static final long LINK_PENDING = -2L;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] records;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder lapped = new LongAdder();
+    // Records with a sequence number lower than this have been cleared
+    private volatile long floor;
+
+    // Per-flow index: latest sequence number per flow hash bucket, and the previous one for each slot
+    private final AtomicLongArray flowHeads;
+    private final AtomicLongArray flowLinks;
+    // Time segments, oldest first: the segment number and the sequence number of its first record. Segments
+    // from firstSegment (inclusive) to endSegment (exclusive) are described. Guarded by this.
+    private final long[] segmentNumbers = new long[SEGMENTS];
+    private final long[] segmentFirstSequences = new long[SEGMENTS];
+    private long firstSegment;
+    private long endSegment;
+    // Number of the newest segment, read without locking on every append
+    private volatile long newestSegment = EMPTY;
+    // Age after which whole segments are released; 0 keeps reports until they are overwritten
+    private volatile long retentionMillis;
+
+    /**
+     * Creates a report store holding at most the given number of reports.
+     *
+     * @param capacity maximum number of reports, rounded down to a power of two
+     */
+    ReportRingBuffer(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(1, capacity));
+        this.mask = this.capacity - 1;
+        this.records = new long[this.capacity * RECORD_WORDS];
+        this.sequences = new AtomicLongArray(this.capacity);
+        this.flowHeads = new AtomicLongArray(this.capacity);
+        this.flowLinks = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, EMPTY);
+            flowHeads.set(i, NO_LINK);
+        }
+    }
+
+    /**
+     * Creates a report store that fits in the given number of bytes, including its per-flow index.
+     *
+     * @param budgetBytes memory budget for report records and their index
+     * @return a new report store
+     */
+    static ReportRingBuffer withByteBudget(long budgetBytes) {
+        return new ReportRingBuffer((int) Math.min(1 << 30,
+                                                   Math.max(1, budgetBytes / (RECORD_BYTES + INDEX_BYTES))));
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Appends a report to the store, overwriting the oldest report if the store is full.
+     *
+     * @param srcIp           source IPv4 address of the reported flow
+     * @param dstIp           destination IPv4 address of the reported flow
+     * @param srcPort         source L4 port of the reported flow
+     * @param dstPort         destination L4 port of the reported flow
+     * @param protocol        IP protocol of the reported flow
+     * @param queueSize       queue occupancy of the reported flow
+     * @param timestampMillis epoch time in milliseconds at which the report was received
+     */
+    void append(int srcIp, int dstIp, short srcPort, short dstPort, byte protocol,
+                int queueSize, long timestampMillis) {
+        final long seq = head.getAndIncrement();
+        final int slot = (int) (seq & mask);
+        long previous;
+        while (true) {
+            previous = sequences.get(slot);
+            if (previous >= seq) {
+                // A writer that claimed a later sequence already owns this slot, so this record is stale
+                lapped.increment();
+                return;
+            }
+            if (previous != WRITING && sequences.compareAndSet(slot, previous, WRITING)) {
+                break;
+            }
+            Thread.onSpinWait();
+        }
+        if (previous >= floor) {
+            evicted.increment();
+        }
+        final int base = slot * RECORD_WORDS;
+        records[base] = packAddresses(srcIp, dstIp);
+        records[base + 1] = packPorts(srcPort, dstPort, protocol);
+        records[base + 2] = queueSize & 0xffffffffL;
+        records[base + 3] = timestampMillis;
+        flowLinks.set(slot, LINK_PENDING);
+        sequences.setRelease(slot, seq);
+
+        // Index the record only once it is readable, so a chain never leads to a record that is still being written
+        final int bucket = ReportIngestPipeline.flowHash(srcIp, dstIp, srcPort, dstPort, protocol) & mask;
+        flowLinks.set(slot, flowHeads.getAndSet(bucket, seq));
+        final long segment = Math.floorDiv(timestampMillis, SEGMENT_MS);
+        if (segment > newestSegment) {
+            startSegment(segment, seq, timestampMillis);
+        }
+    }
+
+    /**
+     * Starts a new time segment with the given record, and releases the segments that have aged past the retention
+     * time. Runs once per segment, so it may lock.
+     */
+    private synchronized void startSegment(long segment, long seq, long timestampMillis) {
+        if (segment <= newestSegment) {
+            return;
+        }
+        if (endSegment - firstSegment == SEGMENTS) {
+            firstSegment++;
+        }
+        final int index = (int) (endSegment & SEGMENT_MASK);
+        segmentNumbers[index] = segment;
+        segmentFirstSequences[index] = seq;
+        endSegment++;
+        newestSegment = segment;
+        releaseSegments(timestampMillis);
+    }
+
+    /**
+     * Sets the age after which reports are released from the store.
+     *
+     * @param retentionMillis retention time in milliseconds; 0 keeps reports until they are overwritten
+     */
+    void setRetention(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Releases the segments whose reports have all aged past the retention time. Appending a report does this as
+     * each segment starts; readers call it so that reports expire even when none are arriving.
+     *
+     * @param nowMillis current epoch time in milliseconds
+     */
+    synchronized void expire(long nowMillis) {
+        releaseSegments(nowMillis);
+    }
+
+    private void releaseSegments(long nowMillis) {
+        final long retention = retentionMillis;
+        if (retention <= 0) {
+            return;
+        }
+        // Segments ending at or before the cutoff hold only expired reports
+        final long cutoffSegment = Math.floorDiv(nowMillis - retention, SEGMENT_MS);
+        while (firstSegment < endSegment && segmentNumbers[(int) (firstSegment & SEGMENT_MASK)] < cutoffSegment) {
+            firstSegment++;
+            final long releasedTo = firstSegment < endSegment
+                    ? segmentFirstSequences[(int) (firstSegment & SEGMENT_MASK)]
+                    : expiredEnd(cutoffSegment * SEGMENT_MS);
+            if (releasedTo > floor) {
+                floor = releasedTo;
+            }
+        }
+    }
+
+    /**
+     * Returns the end of the run of published records, starting at the floor, received before the given time. The
+     * newest segment has no successor to release it up to, and a record still being appended may already hold a
+     * sequence number below the head, so the floor stops at the first record that is unpublished or not expired.
+     */
+    private long expiredEnd(long cutoffMillis) {
+        final long end = head.get();
+        // Records more than a capacity behind the head have been overwritten already
+        long seq = Math.max(floor, end - capacity);
+        while (seq < end) {
+            final int slot = (int) (seq & mask);
+            if (sequences.get(slot) != seq || records[slot * RECORD_WORDS + 3] >= cutoffMillis
+                    || sequences.get(slot) != seq) {
+                break;
+            }
+            seq++;
+        }
+        return seq;
+    }
+
+    /**
+     * Copies the record with the given sequence number into the destination array.
+     *
+     * @param seq  sequence number of the record
+     * @param dest array receiving {@link #RECORD_WORDS} words
+     * @param pos  offset in the destination array
+     * @return false if the record is not (or no longer) present in the store
+     */
+    boolean read(long seq, long[] dest, int pos) {
+        final int slot = (int) (seq & mask);
+        if (sequences.getAcquire(slot) != seq) {
+            return false;
+        }
+        System.arraycopy(records, slot * RECORD_WORDS, dest, pos, RECORD_WORDS);
+        VarHandle.loadLoadFence();
+        return sequences.get(slot) == seq;
+    }
+
+    /**
+     * Returns the sequence number of the oldest report that may still be in the store.
+     *
+     * @return first readable sequence number
+     */
+    long firstSequence() {
+        return Math.max(floor, head.get() - capacity);
+    }
+
+    /**
+     * Returns the sequence number that will be assigned to the next appended report.
+     *
+     * @return next sequence number
+     */
+    long nextSequence() {
+        return head.get();
+    }
+
+    /**
+     * Materializes the reports currently in the store, oldest first.
+     *
+     * @return a copy of the stored reports
+     */
+    List<ConQuestReport> snapshot() {
+        final long end = head.get();
+        final long start = Math.max(floor, end - capacity);
+        final List<ConQuestReport> reports = new ArrayList<>((int) (end - start));
+        final long[] record = new long[RECORD_WORDS];
+        for (long seq = start; seq < end; seq++) {
+            if (read(seq, record, 0)) {
+                reports.add(toReport(record, 0));
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Finds the stored reports matching a query, oldest first.
+     *
+     * @param query the query
+     * @return the matching reports, after the query's offset and up to its limit
+     */
+    List<ConQuestReport> query(ReportQuery query) {
+        final List<ConQuestReport> reports = new ArrayList<>();
+        final long[] record = new long[RECORD_WORDS];
+        int skip = query.offset();
+        if (query.isSingleFlow()) {
+            for (long seq : flowSequences(query.flowHash() & mask)) {
+                if (reports.size() >= query.limit()) {
+                    break;
+                }
+                if (read(seq, record, 0) && query.matches(record[0], record[1], record[3]) && skip-- <= 0) {
+                    reports.add(toReport(record, 0));
+                }
+            }
+            return reports;
+        }
+        final long end = Math.min(head.get(), scanEnd(query.toMillis()));
+        for (long seq = scanStart(query.fromMillis()); seq < end && reports.size() < query.limit(); seq++) {
+            if (read(seq, record, 0) && query.matches(record[0], record[1], record[3]) && skip-- <= 0) {
+                reports.add(toReport(record, 0));
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Walks the chain of a flow hash bucket and returns the sequence numbers of the records still in it.
+     */
+    private long[] flowSequences(int bucket) {
+        final long first = firstSequence();
+        long[] found = new long[16];
+        int count = 0;
+        long seq = flowHeads.get(bucket);
+        while (seq >= first) {
+            final int slot = (int) (seq & mask);
+            if (sequences.getAcquire(slot) != seq) {
+                // Overwritten, and so is everything older in the chain
+                break;
+            }
+            long link = flowLinks.get(slot);
+            while (link == LINK_PENDING) {
+                Thread.onSpinWait();
+                link = flowLinks.get(slot);
+            }
+            if (sequences.get(slot) != seq) {
+                break;
+            }
+            if (count == found.length) {
+                found = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = seq;
+            seq = link;
+        }
+        // Concurrent appends may link their records slightly out of order
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Returns the sequence number to start scanning from for reports received at or after a time.
+     */
+    private long scanStart(long fromMillis) {
+        final long first = firstSequence();
+        final long fromSegment = Math.floorDiv(fromMillis, SEGMENT_MS);
+        final long seq;
+        synchronized (this) {
+            if (firstSegment == endSegment || fromSegment <= segmentNumbers[(int) (firstSegment & SEGMENT_MASK)]) {
+                // Starts before the oldest described segment
+                return first;
+            }
+            final long found = findSegment(fromSegment);
+            if (found == endSegment) {
+                return head.get();
+            }
+            seq = segmentFirstSequences[(int) (found & SEGMENT_MASK)];
+        }
+        return Math.max(first, seq - ORDER_SLACK);
+    }
+
+    /**
+     * Returns the sequence number to stop scanning at for reports received at or before a time.
+     */
+    private long scanEnd(long toMillis) {
+        final long toSegment = Math.floorDiv(toMillis, SEGMENT_MS);
+        synchronized (this) {
+            final long found = findSegment(toSegment + 1);
+            if (found == endSegment) {
+                return Long.MAX_VALUE;
+            }
+            return segmentFirstSequences[(int) (found & SEGMENT_MASK)] + ORDER_SLACK;
+        }
+    }
+
+    /**
+     * Finds the oldest described segment numbered at or after the given one. Segment numbers increase from the
+     * oldest segment to the newest, so this is a binary search.
+     *
+     * @return position of the segment, or endSegment if there is none
+     */
+    private long findSegment(long segment) {
+        long low = firstSegment;
+        long high = endSegment;
+        while (low < high) {
+            final long mid = (low + high) >>> 1;
+            if (segmentNumbers[(int) (mid & SEGMENT_MASK)] < segment) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copies the reports appended to this store from a sequence number onwards into another store, oldest first.
+     *
+     * @param other    the store to copy into
+     * @param fromSeq  sequence number to start copying from; reports no longer in the store are skipped
+     * @return the sequence number to copy from next time, to pick up reports appended meanwhile
+     */
+    long copyInto(ReportRingBuffer other, long fromSeq) {
+        final long end = head.get();
+        final long[] r = new long[RECORD_WORDS];
+        for (long seq = Math.max(fromSeq, firstSequence()); seq < end; seq++) {
+            if (read(seq, r, 0)) {
+                other.append((int) (r[0] >>> 32), (int) r[0], (short) (r[1] >>> 24), (short) (r[1] >>> 8),
+                             (byte) r[1], (int) r[2], r[3]);
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Logically removes all reports currently in the store.
+     */
+    synchronized void clear() {
+        floor = head.get();
+    }
+
+    /**
+     * Returns the number of reports currently held by the store.
+     *
+     * @return number of stored reports
+     */
+    int size() {
+        return (int) Math.min(capacity, head.get() - floor);
+    }
+
+    /**
+     * Returns the number of reports that were overwritten to make room for newer ones.
+     *
+     * @return number of evicted reports
+     */
+    long evictedCount() {
+        return evicted.sum();
+    }
+
+    /**
+     * Returns the number of reports that were dropped because writers lapped the whole buffer while they were
+     * being stored.
+     *
+     * @return number of dropped reports
+     */
+    long lappedCount() {
+        return lapped.sum();
+    }
+
+    static long packAddresses(int srcIp, int dstIp) {
+        return ((long) srcIp << 32) | (dstIp & 0xffffffffL);
+    }
+
+    static long packPorts(short srcPort, short dstPort, byte protocol) {
+        return ((long) (srcPort & 0xffff) << 24) | ((dstPort & 0xffff) << 8) | (protocol & 0xff);
+    }
+
+    static ConQuestReport toReport(long[] record, int pos) {
+        final long addresses = record[pos];
+        final long ports = record[pos + 1];
+        return new ConQuestReport((int) (addresses >>> 32), (int) addresses,
+                                  (short) (ports >>> 24), (short) (ports >>> 8), (byte) ports,
+                                  (int) record[pos + 2], record[pos + 3]);
+    }
+}
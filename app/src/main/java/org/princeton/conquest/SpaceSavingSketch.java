@@ -0,0 +1,329 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Space-Saving sketch that keeps the heaviest keys of a stream in a fixed number of counters.
+ * <p>
+ * Each monitored key has a counter for the number of times it was seen and one for the sum of the weights it was seen
+ * with; the sketch ranks keys by one of the two. When a key that is not monitored arrives and all counters are taken,
+ * it replaces the lightest key and inherits its counts, which are kept as the new key's error bound. Any key whose
+ * true rank value is above the lightest counter is guaranteed to be monitored.
+ * <p>
+ * Counters sit in a binary min-heap indexed by a hash map, so an update is a hash lookup plus at most
+ * {@code log2(capacity)} swaps, independent of the length of the stream. A sketch of {@code long} keys indexes its
+ * counters in an open-addressing table instead, so counting a key allocates nothing. Not thread-safe.
+ *
+ * @param <K> type of the keys
+ */
+final class SpaceSavingSketch<K> {
+
+    /**
+     * A monitored key and its counts, which may overestimate the true counts by at most {@link #error()}.
+     *
+     * @param <K> type of the key
+     */
+    static final class Counter<K> {
+        private K key;
+        private long count;
+        private long weight;
+        private long error;
+        private int heapIndex;
+        // Key of a sketch of primitive keys, which leaves key null until the counter is copied out
+        private long longKey;
+
+        private Counter() {
+        }
+
+        private Counter(Counter<K> other) {
+            this.key = other.key;
+            this.count = other.count;
+            this.weight = other.weight;
+            this.error = other.error;
+            this.longKey = other.longKey;
+        }
+
+        K key() {
+            return key;
+        }
+
+        long count() {
+            return count;
+        }
+
+        long weight() {
+            return weight;
+        }
+
+        long error() {
+            return error;
+        }
+    }
+
+    private final int capacity;
+    private final boolean rankByWeight;
+    private final Counter<K>[] heap;
+    // Index of the monitored keys: a hash map of object keys, or an open-addressing table of primitive keys
+    private final Map<K, Counter<K>> index;
+    private final Counter<K>[] slots;
+    private final int slotShift;
+    private final int slotMask;
+    private int size;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param capacity     number of keys to monitor
+     * @param rankByWeight rank keys by their summed weight rather than by the number of times they were seen
+     */
+    SpaceSavingSketch(int capacity, boolean rankByWeight) {
+        this(capacity, rankByWeight, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private SpaceSavingSketch(int capacity, boolean rankByWeight, boolean longKeys) {
+        this.capacity = Math.max(1, capacity);
+        this.rankByWeight = rankByWeight;
+        this.heap = new Counter[this.capacity];
+        if (longKeys) {
+            // At most half full, so probe sequences stay short
+            final int slotCount = Integer.highestOneBit(this.capacity * 2 - 1) << 1;
+            this.index = null;
+            this.slots = new Counter[slotCount];
+            this.slotShift = Long.SIZE - Integer.numberOfTrailingZeros(slotCount);
+            this.slotMask = slotCount - 1;
+        } else {
+            this.index = new HashMap<>(this.capacity * 2);
+            this.slots = null;
+            this.slotShift = 0;
+            this.slotMask = 0;
+        }
+    }
+
+    /**
+     * Creates an empty sketch of {@code long} keys, which are counted with {@link #addLong}.
+     *
+     * @param capacity     number of keys to monitor
+     * @param rankByWeight rank keys by their summed weight rather than by the number of times they were seen
+     * @return a new sketch
+     */
+    static SpaceSavingSketch<Long> withLongKeys(int capacity, boolean rankByWeight) {
+        return new SpaceSavingSketch<>(capacity, rankByWeight, true);
+    }
+
+    /**
+     * Counts one occurrence of a key.
+     *
+     * @param key    the key
+     * @param weight weight of this occurrence; must not be negative
+     */
+    void add(K key, long weight) {
+        Counter<K> counter = index.get(key);
+        if (counter == null && size < capacity) {
+            counter = new Counter<>();
+            counter.key = key;
+            counter.count = 1;
+            counter.weight = weight;
+            index.put(key, counter);
+            heap[size] = counter;
+            siftUp(size++);
+            return;
+        }
+        if (counter == null) {
+            // Take over the lightest counter, keeping its counts as the error of the new key
+            counter = heap[0];
+            index.remove(counter.key);
+            counter.error = rank(counter);
+            counter.key = key;
+            index.put(key, counter);
+        }
+        counter.count++;
+        counter.weight += weight;
+        // Counts only grow, so the counter can only move away from the root
+        siftDown(counter.heapIndex);
+    }
+
+    /**
+     * Counts one occurrence of a key in a sketch created with {@link #withLongKeys}.
+     *
+     * @param key    the key
+     * @param weight weight of this occurrence; must not be negative
+     */
+    void addLong(long key, long weight) {
+        int slot = findSlot(key);
+        Counter<K> counter = slots[slot];
+        if (counter == null && size < capacity) {
+            counter = new Counter<>();
+            counter.longKey = key;
+            counter.count = 1;
+            counter.weight = weight;
+            slots[slot] = counter;
+            heap[size] = counter;
+            siftUp(size++);
+            return;
+        }
+        if (counter == null) {
+            // Take over the lightest counter, keeping its counts as the error of the new key
+            counter = heap[0];
+            removeSlot(findSlot(counter.longKey));
+            counter.error = rank(counter);
+            counter.longKey = key;
+            slots[findSlot(key)] = counter;
+        }
+        counter.count++;
+        counter.weight += weight;
+        siftDown(counter.heapIndex);
+    }
+
+    /**
+     * Passes a copy of every monitored counter to a consumer, in no particular order.
+     *
+     * @param sink receives the counters
+     */
+    void forEach(Consumer<Counter<K>> sink) {
+        for (int i = 0; i < size; i++) {
+            sink.accept(copy(heap[i]));
+        }
+    }
+
+    /**
+     * Returns copies of the monitored counters, heaviest first.
+     *
+     * @return the counters
+     */
+    List<Counter<K>> counters() {
+        List<Counter<K>> counters = new ArrayList<>(size);
+        forEach(counters::add);
+        counters.sort((a, b) -> Long.compare(rank(b), rank(a)));
+        return counters;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the rank value of the lightest monitored key, which bounds the rank value of every key that is not
+     * monitored. Zero while the sketch still has free counters, as every key seen so far is then monitored.
+     *
+     * @return upper bound on the rank value of unmonitored keys
+     */
+    long minRank() {
+        return size < capacity ? 0 : rank(heap[0]);
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            heap[i] = null;
+        }
+        if (slots != null) {
+            Arrays.fill(slots, null);
+        } else {
+            index.clear();
+        }
+        size = 0;
+    }
+
+    long rank(Counter<K> counter) {
+        return rankByWeight ? counter.weight : counter.count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Counter<K> copy(Counter<K> counter) {
+        Counter<K> copy = new Counter<>(counter);
+        if (slots != null) {
+            // Keys of a sketch of long keys are only boxed when read
+            copy.key = (K) Long.valueOf(counter.longKey);
+        }
+        return copy;
+    }
+
+    private int home(long key) {
+        return (int) ((key * 0x9e3779b97f4a7c15L) >>> slotShift);
+    }
+
+    /**
+     * Returns the slot holding a key, or the free slot where it would be inserted.
+     */
+    private int findSlot(long key) {
+        int slot = home(key);
+        while (slots[slot] != null && slots[slot].longKey != key) {
+            slot = (slot + 1) & slotMask;
+        }
+        return slot;
+    }
+
+    /**
+     * Frees a slot and moves the keys probed after it back, so that no probe sequence has a gap.
+     */
+    private void removeSlot(int slot) {
+        int hole = slot;
+        slots[hole] = null;
+        for (int i = (slot + 1) & slotMask; slots[i] != null; i = (i + 1) & slotMask) {
+            // Move the key only if the hole lies between its home slot and where it is now
+            if (((i - home(slots[i].longKey)) & slotMask) >= ((i - hole) & slotMask)) {
+                slots[hole] = slots[i];
+                slots[i] = null;
+                hole = i;
+            }
+        }
+    }
+
+    private void siftUp(int position) {
+        Counter<K> counter = heap[position];
+        long value = rank(counter);
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (rank(heap[parent]) <= value) {
+                break;
+            }
+            heap[position] = heap[parent];
+            heap[position].heapIndex = position;
+            position = parent;
+        }
+        heap[position] = counter;
+        counter.heapIndex = position;
+    }
+
+    private void siftDown(int position) {
+        Counter<K> counter = heap[position];
+        long value = rank(counter);
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && rank(heap[child + 1]) < rank(heap[child])) {
+                child++;
+            }
+            if (rank(heap[child]) >= value) {
+                break;
+            }
+            heap[position] = heap[child];
+            heap[position].heapIndex = position;
+            position = child;
+        }
+        heap[position] = counter;
+        counter.heapIndex = position;
+    }
+}
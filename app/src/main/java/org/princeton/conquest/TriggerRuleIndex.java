@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe index of the report trigger rules installed by the app, grouped by device.
+ * <p>
+ * Lets the triggers of a device be found without scanning every flow entry the app owns. The index records rules
+ * when the app submits them and is kept in sync with the flow rule store by a flow rule listener, so rules added or
+ * removed by other means are reflected too.
+ */
+final class TriggerRuleIndex {
+
+    private final ConcurrentMap<DeviceId, Map<FlowId, FlowRule>> rules = new ConcurrentHashMap<>();
+
+    void add(FlowRule rule) {
+        rules.compute(rule.deviceId(), (deviceId, deviceRules) -> {
+            if (deviceRules == null) {
+                deviceRules = new ConcurrentHashMap<>();
+            }
+            deviceRules.put(rule.id(), rule);
+            return deviceRules;
+        });
+    }
+
+    void remove(FlowRule rule) {
+        rules.computeIfPresent(rule.deviceId(), (deviceId, deviceRules) -> {
+            deviceRules.remove(rule.id());
+            return deviceRules.isEmpty() ? null : deviceRules;
+        });
+    }
+
+    /**
+     * Returns the trigger rules installed on a device.
+     *
+     * @param deviceId the device
+     * @return a copy of the device's rules, empty if there are none
+     */
+    Collection<FlowRule> rules(DeviceId deviceId) {
+        Map<FlowId, FlowRule> deviceRules = rules.get(deviceId);
+        return deviceRules == null ? List.of() : List.copyOf(deviceRules.values());
+    }
+
+    /**
+     * Removes all trigger rules of a device from the index.
+     *
+     * @param deviceId the device
+     * @return the removed rules, empty if there were none
+     */
+    Collection<FlowRule> removeDevice(DeviceId deviceId) {
+        Map<FlowId, FlowRule> deviceRules = rules.remove(deviceId);
+        return deviceRules == null ? List.of() : deviceRules.values();
+    }
+
+    Set<DeviceId> devices() {
+        return Set.copyOf(rules.keySet());
+    }
+}
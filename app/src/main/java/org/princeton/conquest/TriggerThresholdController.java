@@ -0,0 +1,298 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onosproject.net.DeviceId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Closed-loop controller that keeps the report rate of each device within a budget by moving its report trigger
+ * thresholds.
+ * <p>
+ * Each device's thresholds start at the values the operator installed. Every interval the controller measures how
+ * many reports the device sent; above the budget it raises both thresholds, doubling them once per step and taking
+ * more steps the further the rate is over budget. Below half of the budget for several intervals in a row, it lowers
+ * them one step at a time, down to a fraction of the installed values, so culprits are not missed when the installed
+ * thresholds are too high. The gap between the two watermarks, the hold time before lowering, and an interval of
+ * settling after each change keep the rules from churning.
+ * <p>
+ * Only devices this instance is master of are controlled, since only the master receives their reports.
+ */
+final class TriggerThresholdController {
+
+    private static final Logger log = LoggerFactory.getLogger(TriggerThresholdController.class);
+
+    // Rates below this fraction of the budget lower the thresholds
+    private static final double LOW_WATERMARK = 0.5;
+    // Consecutive intervals below the low watermark before lowering
+    private static final int HOLD_INTERVALS = 3;
+    // Intervals to wait after a change before measuring again
+    private static final int SETTLE_INTERVALS = 1;
+    private static final int MAX_RAISE_STEPS = 4;
+    private static final int MIN_LEVEL = -4;
+    private static final int MAX_LEVEL = Constants.QUEUE_DELAY_BIT_WIDTH;
+
+    /**
+     * Installs report triggers on a device.
+     */
+    interface Installer {
+        /**
+         * Replaces the report triggers of a device.
+         *
+         * @param deviceId           the device
+         * @param minQueueDelay      the queue delay needed for a report to be generated
+         * @param minFlowSizeInQueue how many queue bytes a single flow should occupy for a report to be generated
+         * @return a future completed once the device has installed the triggers
+         */
+        CompletableFuture<Void> install(DeviceId deviceId, int minQueueDelay, int minFlowSizeInQueue);
+    }
+
+    private static final class DeviceState {
+        private final int baseQueueDelay;
+        private final int baseFlowSize;
+        // Thresholds are the base values scaled by 2^level
+        private int level;
+        private long lastCount = -1;
+        private int intervalsBelow;
+        private int settling;
+
+        private DeviceState(int baseQueueDelay, int baseFlowSize) {
+            this.baseQueueDelay = baseQueueDelay;
+            this.baseFlowSize = baseFlowSize;
+        }
+
+        private int queueDelay() {
+            return scale(baseQueueDelay, level, Constants.QUEUE_DELAY_RANGE_MAX);
+        }
+
+        private int flowSize() {
+            return scale(baseFlowSize, level, Constants.FLOW_SIZE_RANGE_MAX);
+        }
+    }
+
+    private final Supplier<Map<DeviceId, Long>> reportCounts;
+    private final Predicate<DeviceId> localMaster;
+    private final Installer installer;
+    private final ScheduledExecutorService executor;
+
+    // Guarded by this
+    private final Map<DeviceId, DeviceState> devices = new HashMap<>();
+    private ScheduledFuture<?> task;
+    private long lastTickNanos;
+    private long adjustments;
+
+    private volatile int budget;
+    private int intervalMs;
+
+    /**
+     * Creates a controller. It does not adjust anything until it is given a budget.
+     *
+     * @param reportCounts  supplies the number of reports received from each device so far
+     * @param localMaster   tells whether this instance is master of a device
+     * @param installer     installs adjusted thresholds
+     * @param threadFactory factory for the control thread
+     */
+    TriggerThresholdController(Supplier<Map<DeviceId, Long>> reportCounts, Predicate<DeviceId> localMaster,
+                               Installer installer, ThreadFactory threadFactory) {
+        this.reportCounts = reportCounts;
+        this.localMaster = localMaster;
+        this.installer = installer;
+        this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * Sets the report rate budget and how often it is checked.
+     *
+     * @param reportsPerSecond reports per second each device may send; 0 disables the controller and restores the
+     *                         installed thresholds
+     * @param intervalMs       how often to measure report rates and adjust thresholds
+     */
+    synchronized void configure(int reportsPerSecond, int intervalMs) {
+        this.budget = reportsPerSecond;
+        if (task == null || intervalMs != this.intervalMs) {
+            if (task != null) {
+                task.cancel(false);
+            }
+            this.intervalMs = intervalMs;
+            lastTickNanos = System.nanoTime();
+            task = executor.scheduleAtFixedRate(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Installs report triggers on a device and makes their thresholds the starting point for adjustments.
+     *
+     * @param deviceId           the device
+     * @param minQueueDelay      the queue delay needed for a report to be generated
+     * @param minFlowSizeInQueue how many queue bytes a single flow should occupy for a report to be generated
+     * @return a future completed once the device has installed the triggers
+     */
+    synchronized CompletableFuture<Void> install(DeviceId deviceId, int minQueueDelay, int minFlowSizeInQueue) {
+        devices.put(deviceId, new DeviceState(minQueueDelay, minFlowSizeInQueue));
+        return installer.install(deviceId, minQueueDelay, minFlowSizeInQueue);
+    }
+
+    /**
+     * Stops adjusting the thresholds of devices whose triggers are being removed.
+     *
+     * @param deviceIds selects the devices
+     */
+    synchronized void remove(Predicate<DeviceId> deviceIds) {
+        devices.keySet().removeIf(deviceIds);
+    }
+
+    /**
+     * Returns the current level of each controlled device: 0 where the installed thresholds are in force, positive
+     * where they were raised and negative where they were lowered, by a factor of two per level.
+     *
+     * @return threshold levels keyed by device
+     */
+    synchronized Map<DeviceId, Long> levels() {
+        Map<DeviceId, Long> levels = new LinkedHashMap<>();
+        devices.forEach((deviceId, state) -> levels.put(deviceId, (long) state.level));
+        return levels;
+    }
+
+    /**
+     * Returns the number of threshold changes made since the controller started.
+     *
+     * @return number of adjustments
+     */
+    synchronized long adjustmentCount() {
+        return adjustments;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void tick() {
+        try {
+            final long nowNanos = System.nanoTime();
+            final double elapsedSeconds = (nowNanos - lastTickNanos) / 1e9;
+            lastTickNanos = nowNanos;
+            final Map<DeviceId, Long> counts = reportCounts.get();
+            final int currentBudget = budget;
+            devices.forEach((deviceId, state) -> {
+                long count = counts.getOrDefault(deviceId, 0L);
+                long previousCount = state.lastCount;
+                state.lastCount = count;
+                if (currentBudget <= 0) {
+                    // Controller disabled: go back to the installed thresholds
+                    if (state.level != 0) {
+                        adjust(deviceId, state, 0, 0);
+                    }
+                    return;
+                }
+                if (previousCount < 0 || !localMaster.test(deviceId)) {
+                    state.intervalsBelow = 0;
+                    return;
+                }
+                double rate = Math.max(0, count - previousCount) / elapsedSeconds;
+                int newLevel = nextLevel(state, rate, currentBudget);
+                if (newLevel != state.level) {
+                    adjust(deviceId, state, newLevel, rate);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Exception while adjusting report trigger thresholds", e);
+        }
+    }
+
+    private int nextLevel(DeviceState state, double rate, int currentBudget) {
+        if (state.settling > 0) {
+            state.settling--;
+            return state.level;
+        }
+        if (rate > currentBudget) {
+            state.intervalsBelow = 0;
+            // Report rate falls roughly in proportion to the thresholds, so take one step per doubling over budget
+            int steps = Math.min(MAX_RAISE_STEPS, 1 + (int) (Math.log(rate / currentBudget) / Math.log(2)));
+            return Math.min(MAX_LEVEL, state.level + steps);
+        }
+        if (rate < currentBudget * LOW_WATERMARK) {
+            if (++state.intervalsBelow >= HOLD_INTERVALS) {
+                state.intervalsBelow = 0;
+                return Math.max(MIN_LEVEL, state.level - 1);
+            }
+            return state.level;
+        }
+        state.intervalsBelow = 0;
+        return state.level;
+    }
+
+    private void adjust(DeviceId deviceId, DeviceState state, int newLevel, double rate) {
+        final int oldLevel = state.level;
+        int oldQueueDelay = state.queueDelay();
+        int oldFlowSize = state.flowSize();
+        state.level = newLevel;
+        state.settling = SETTLE_INTERVALS;
+        if (state.queueDelay() == oldQueueDelay && state.flowSize() == oldFlowSize) {
+            // Clamped at the range limits; nothing to reinstall
+            return;
+        }
+        adjustments++;
+        log.info("Moving report trigger thresholds of {} from queue delay {} and flow size {} to {} and {} "
+                         + "({} reports/s, budget {}/s)", deviceId, oldQueueDelay, oldFlowSize,
+                 state.queueDelay(), state.flowSize(), (long) rate, budget);
+        installer.install(deviceId, state.queueDelay(), state.flowSize()).whenComplete((result, error) -> {
+            if (error != null) {
+                installFailed(deviceId, state, oldLevel, newLevel, error);
+            }
+        });
+    }
+
+    /**
+     * Goes back to the level whose thresholds are still installed after a device failed to install new ones, unless
+     * a later adjustment or a new base install has replaced the failed one. The next interval then tries again.
+     */
+    private synchronized void installFailed(DeviceId deviceId, DeviceState state, int oldLevel, int failedLevel,
+                                            Throwable error) {
+        log.warn("Failed to move report trigger thresholds of {} to level {}, staying at level {}",
+                 deviceId, failedLevel, oldLevel, error);
+        if (devices.get(deviceId) == state && state.level == failedLevel) {
+            state.level = oldLevel;
+            state.settling = 0;
+        }
+    }
+
+    /**
+     * Scales a threshold by a power of two. A threshold of 0 matches everything, so raising it starts from 1, and
+     * lowering a threshold the operator set above 0 stops at 1.
+     */
+    private static int scale(int base, int level, int max) {
+        if (level == 0) {
+            return base;
+        }
+        if (level < 0) {
+            return base == 0 ? 0 : Math.max(1, base >> -level);
+        }
+        return (int) Math.min(max, (long) Math.max(base, 1) << level);
+    }
+}
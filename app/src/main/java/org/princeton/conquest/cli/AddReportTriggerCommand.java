@@ -12,6 +12,11 @@ import org.onosproject.net.device.DeviceService;
 import org.princeton.conquest.ConQuestService;
 import org.onosproject.cli.AbstractShellCommand;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /**
  * ConQuest command to add report triggers to the dataplane.
  */
@@ -19,6 +24,8 @@ import org.onosproject.cli.AbstractShellCommand;
 @Command(scope = "conquest", name = "add-report-trigger",
         description = "Add report triggers to the dataplane.")
 public class AddReportTriggerCommand extends AbstractShellCommand {
+    private static final long TIMEOUT_SECONDS = 30;
+
     @Argument(index = 0, name = "queue-delay",
             description = "The minimum queue delay needed to trigger reports",
             required = true)
@@ -39,6 +46,7 @@ public class AddReportTriggerCommand extends AbstractShellCommand {
     @Override
     protected void doExecute() {
         ConQuestService app = get(ConQuestService.class);
+        long startNanos = System.nanoTime();
 
         if (uri != null) {
             DeviceService deviceService = get(DeviceService.class);
@@ -47,12 +55,24 @@ public class AddReportTriggerCommand extends AbstractShellCommand {
                 print("Device \"%s\" is not found", uri);
                 return;
             }
-            app.addReportTrigger(device.id(), queueDepth, flowSize);
-            print("Installed report triggers on device %s.", device.id());
+            awaitConvergence(startNanos, app.addReportTrigger(device.id(), queueDepth, flowSize),
+                    String.format("Installed report triggers on device %s", device.id()));
         } else {
-            app.addReportTriggerEverywhere(queueDepth, flowSize);
-            print("Installed report triggers on all devices.");
+            awaitConvergence(startNanos, app.addReportTriggerEverywhere(queueDepth, flowSize),
+                    "Installed report triggers on all devices");
         }
     }
 
+    private void awaitConvergence(long startNanos, CompletableFuture<Void> update, String doneMessage) {
+        try {
+            update.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            print("%s in %d ms.", doneMessage, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } catch (ExecutionException e) {
+            print("Failed to install report triggers: %s", e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            print("Devices did not confirm the report triggers within %d seconds.", TIMEOUT_SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -5,7 +5,6 @@ import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.Completion;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.onlab.packet.Ip4Address;
-import org.onlab.util.ImmutableByteSequence;
 import org.onosproject.cli.AbstractShellCommand;
 import org.onosproject.cli.net.DeviceIdCompleter;
 import org.onosproject.net.Device;
@@ -14,7 +13,6 @@ import org.onosproject.net.device.DeviceService;
 import org.princeton.conquest.ConQuestReport;
 import org.princeton.conquest.ConQuestService;
 
-import java.time.LocalTime;
 
 @Service
 @Command(scope = "conquest", name = "block-flow",
@@ -54,8 +52,8 @@ public class BlockFlowCommand extends AbstractShellCommand {
         Ip4Address srcAddr = Ip4Address.valueOf(ipv4Src);
         Ip4Address dstAddr = Ip4Address.valueOf(ipv4Dst);
 
-        ConQuestReport report = new ConQuestReport(srcAddr, dstAddr, l4Sport, l4Dport, protocol,
-                ImmutableByteSequence.copyFrom(0), LocalTime.now());
+        ConQuestReport report = new ConQuestReport(srcAddr.toInt(), dstAddr.toInt(), l4Sport, l4Dport, protocol,
+                0, System.currentTimeMillis());
 
         print("Blocking flow for report %s", report.toString());
         app.blockFlow(report);
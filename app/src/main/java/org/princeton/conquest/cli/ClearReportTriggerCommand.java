@@ -11,6 +11,11 @@ import org.onosproject.net.DeviceId;
 import org.onosproject.net.device.DeviceService;
 import org.princeton.conquest.ConQuestService;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /**
  * ConQuest command to clear report triggers.
  */
@@ -18,6 +23,8 @@ import org.princeton.conquest.ConQuestService;
 @Command(scope = "conquest", name = "clear-triggers",
         description = "Clear all ConQuest report triggers from the dataplane")
 public class ClearReportTriggerCommand extends AbstractShellCommand {
+    private static final long TIMEOUT_SECONDS = 30;
+
     @Argument(index = 0, name = "uri",
             description = "Device ID. If not provided, report triggers will be cleared from all available devices",
             required = false, multiValued = false)
@@ -27,6 +34,7 @@ public class ClearReportTriggerCommand extends AbstractShellCommand {
     @Override
     protected void doExecute() {
         ConQuestService app = get(ConQuestService.class);
+        long startNanos = System.nanoTime();
 
         if (uri != null) {
             DeviceService deviceService = get(DeviceService.class);
@@ -35,12 +43,23 @@ public class ClearReportTriggerCommand extends AbstractShellCommand {
                 print("Device \"%s\" is not found", uri);
                 return;
             }
-            app.removeReportTriggers(device.id());
-            print("Added report triggers to device %s.", device.id());
+            awaitConvergence(startNanos, app.removeReportTriggers(device.id()),
+                    String.format("Removed report triggers from device %s", device.id()));
         } else {
-            app.removeAllReportTriggers();
-            print("Removed report triggers from all devices.");
+            awaitConvergence(startNanos, app.removeAllReportTriggers(), "Removed report triggers from all devices");
         }
     }
 
+    private void awaitConvergence(long startNanos, CompletableFuture<Void> update, String doneMessage) {
+        try {
+            update.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            print("%s in %d ms.", doneMessage, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } catch (ExecutionException e) {
+            print("Failed to remove report triggers: %s", e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            print("Devices did not confirm the report triggers within %d seconds.", TIMEOUT_SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
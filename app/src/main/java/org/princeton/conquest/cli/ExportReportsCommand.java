@@ -0,0 +1,57 @@
+package org.princeton.conquest.cli;
+
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+import org.princeton.conquest.ConQuestService;
+import org.princeton.conquest.ReportChunk;
+import org.princeton.conquest.ReportCursor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ConQuest command to export the received reports to a file as newline-delimited JSON.
+ */
+@Service
+@Command(scope = "conquest", name = "export-reports",
+        description = "Write all received ConQuest reports to a file, one JSON object per line")
+public class ExportReportsCommand extends AbstractShellCommand {
+
+    @Argument(index = 0, name = "file",
+            description = "Path of the file to write; an existing file is overwritten",
+            required = true)
+    String file = null;
+
+    @Option(name = "--chunk", aliases = "-c",
+            description = "Number of reports read from the report store at a time")
+    int chunkSize = 4096;
+
+    @Override
+    protected void doExecute() {
+        ConQuestService app = get(ConQuestService.class);
+
+        ReportCursor cursor = app.openReportCursor();
+        ReportChunk chunk = new ReportChunk(chunkSize);
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (cursor.next(chunk)) {
+                ByteBuffer lines = chunk.toJsonLines();
+                while (lines.hasRemaining()) {
+                    channel.write(lines);
+                }
+                count += chunk.size();
+            }
+        } catch (IOException e) {
+            print("Unable to write %s: %s", file, e.getMessage());
+            return;
+        }
+        print("Exported %d reports to %s, %d reports dropped during the export", count, file, cursor.skipped());
+    }
+}
@@ -0,0 +1,22 @@
+package org.princeton.conquest.cli;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.cluster.ClusterService;
+import org.princeton.conquest.ConQuestService;
+
+/**
+ * ConQuest command to show the report ingestion load of this cluster instance.
+ */
+@Service
+@Command(scope = "conquest", name = "ingest-stats",
+        description = "Show how many reports this ONOS instance owned, admitted and shed, overall and per device")
+public class IngestStatsCommand extends AbstractShellCommand {
+    @Override
+    protected void doExecute() {
+        ConQuestService app = get(ConQuestService.class);
+        print("node: %s", get(ClusterService.class).getLocalNode().id().id());
+        app.getIngestCounters().forEach((name, value) -> print("%s: %d", name, value));
+    }
+}
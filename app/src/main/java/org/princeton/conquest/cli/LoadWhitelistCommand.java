@@ -0,0 +1,70 @@
+package org.princeton.conquest.cli;
+
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onlab.packet.Ip4Prefix;
+import org.onosproject.cli.AbstractShellCommand;
+import org.princeton.conquest.ConQuestService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ConQuest command to whitelist all prefixes listed in a file.
+ */
+@Service
+@Command(scope = "conquest", name = "load-whitelist",
+        description = "Whitelist the IPv4 prefixes listed in a file, one per line. " +
+                "Blank lines and lines starting with # are ignored.")
+public class LoadWhitelistCommand extends AbstractShellCommand {
+
+    @Argument(index = 0, name = "file",
+            description = "Path of the file listing the prefixes to whitelist",
+            required = true)
+    String file = null;
+
+    @Option(name = "--replace", aliases = "-r",
+            description = "Replace the current whitelist instead of adding to it")
+    boolean replace = false;
+
+    @Override
+    protected void doExecute() {
+        ConQuestService app = get(ConQuestService.class);
+
+        List<Ip4Prefix> prefixes = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    prefixes.add(Ip4Prefix.valueOf(line));
+                } catch (IllegalArgumentException e) {
+                    print("Invalid prefix \"%s\" on line %d, whitelist not changed", line, lineNumber);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            print("Unable to read %s: %s", file, e.getMessage());
+            return;
+        }
+
+        if (replace) {
+            app.replaceWhitelist(prefixes);
+            print("Replaced whitelist with %d prefixes from %s", prefixes.size(), file);
+        } else {
+            app.whitelistPrefixes(prefixes);
+            print("Whitelisted %d prefixes from %s", prefixes.size(), file);
+        }
+    }
+}
@@ -18,5 +18,6 @@ public class ReadBlockedFlowsCommand extends AbstractShellCommand {
         for (String s : app.getCurrentlyBlockedFlows()) {
             print(s);
         }
+        app.getBlockCounters().forEach((name, value) -> print("%s: %d", name, value));
     }
 }
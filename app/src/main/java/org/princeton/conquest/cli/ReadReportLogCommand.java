@@ -0,0 +1,42 @@
+package org.princeton.conquest.cli;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+import org.princeton.conquest.ConQuestReport;
+import org.princeton.conquest.ConQuestService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConQuest command to read reports from the durable report log.
+ */
+@Service
+@Command(scope = "conquest", name = "read-report-log",
+        description = "Read ConQuest reports from the on-disk report log, which survives restarts")
+public class ReadReportLogCommand extends AbstractShellCommand {
+
+    @Option(name = "--minutes", aliases = "-m",
+            description = "Only show reports received in the last given number of minutes")
+    long minutes = 0;
+
+    @Option(name = "--limit", aliases = "-l",
+            description = "Maximum number of reports to show")
+    int limit = 1000;
+
+    @Override
+    protected void doExecute() {
+        ConQuestService app = get(ConQuestService.class);
+
+        long toMillis = System.currentTimeMillis();
+        long fromMillis = minutes > 0 ? toMillis - TimeUnit.MINUTES.toMillis(minutes) : 0;
+
+        int count = 0;
+        for (ConQuestReport report : app.getLoggedReports(fromMillis, toMillis, limit)) {
+            count += 1;
+            print("%d) %s", count, report.toString());
+        }
+        print("%d logged reports found", count);
+    }
+}
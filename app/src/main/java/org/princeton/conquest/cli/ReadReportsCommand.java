@@ -3,14 +3,18 @@ package org.princeton.conquest.cli;
 import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.onlab.packet.Ip4Address;
-import org.onosproject.cli.AbstractShellCommand;
 import org.princeton.conquest.ConQuestReport;
 import org.princeton.conquest.ConQuestService;
+import org.princeton.conquest.FlowKey;
+import org.princeton.conquest.FlowStats;
 
-import java.time.LocalTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -20,9 +24,10 @@ import java.util.Objects;
  */
 @Service
 @Command(scope = "conquest", name = "read-reports",
-        description = "Grab all received ConQuest reports")
-public class ReadReportsCommand extends AbstractShellCommand {
-    private static class IpPair {
+        description = "Show statistics of each flow ConQuest reports were received for, "
+                + "or list the reports matching the given options grouped by flow")
+public class ReadReportsCommand extends ReportQueryCommand {
+    static class IpPair {
         Ip4Address src;
         Ip4Address dst;
 
@@ -45,7 +50,7 @@ public class ReadReportsCommand extends AbstractShellCommand {
         }
     }
 
-    private static class PortPair {
+    static class PortPair {
         int src;
         int dst;
         String proto;
@@ -75,8 +80,85 @@ public class ReadReportsCommand extends AbstractShellCommand {
     protected void doExecute() {
         ConQuestService app = get(ConQuestService.class);
 
-        Collection<ConQuestReport> reports = app.getReceivedReports();
+        if (!isQuery()) {
+            printFlowStats(app.getFlowStats());
+            return;
+        }
+
+        Collection<ConQuestReport> reports;
+        try {
+            reports = app.queryReports(query());
+        } catch (IllegalArgumentException e) {
+            print("Invalid query: %s", e.getMessage());
+            return;
+        }
+
+        Map<IpPair, Map<PortPair, List<ConQuestReport>>> groupedReports = groupReports(reports);
 
+        int numFlows = 0;
+        for (var outerEntry : groupedReports.entrySet()) {
+            IpPair ipPair = outerEntry.getKey();
+            var portPairMap = outerEntry.getValue();
+            print("SrcIp %s, DstIp %s, %d Distinct 5-tuples",
+                    ipPair.src.toString(), ipPair.dst.toString(), portPairMap.size());
+            numFlows += portPairMap.size();
+            for (var innerEntry : portPairMap.entrySet()) {
+                PortPair portPair = innerEntry.getKey();
+                // Query results come oldest first, and grouping keeps that order
+                List<ConQuestReport> reportGroup = innerEntry.getValue();
+                ConQuestReport latest = reportGroup.get(reportGroup.size() - 1);
+                print("--Proto %s, SrcPort %d, DstPort %d, %d reports, latest at %s",
+                        portPair.proto, portPair.src, portPair.dst, reportGroup.size(), latest.getReportTime());
+                for (ConQuestReport report : reportGroup) {
+                    print("----%s queue size at time %s", report.queueSizeString(), report.getReportTime().toString());
+                }
+            }
+        }
+        print("%d total reports received from %d flows", reports.size(), numFlows);
+    }
+
+    /**
+     * Prints the statistics kept for each flow, grouped by address pair.
+     *
+     * @param flows per-flow statistics
+     */
+    private void printFlowStats(List<FlowStats> flows) {
+        Map<Long, List<FlowStats>> groupedFlows = new LinkedHashMap<>();
+        long numReports = 0;
+        for (FlowStats stats : flows) {
+            long addresses = ((long) stats.flow().srcIp() << 32) | (stats.flow().dstIp() & 0xffffffffL);
+            groupedFlows.computeIfAbsent(addresses, key -> new ArrayList<>()).add(stats);
+            numReports += stats.reports();
+        }
+        for (List<FlowStats> group : groupedFlows.values()) {
+            FlowKey first = group.get(0).flow();
+            print("SrcIp %s, DstIp %s, %d Distinct 5-tuples",
+                    Ip4Address.valueOf(first.srcIp()), Ip4Address.valueOf(first.dstIp()), group.size());
+            for (FlowStats stats : group) {
+                FlowKey flow = stats.flow();
+                print("--Proto %s, SrcPort %d, DstPort %d, %d reports, first at %s, latest at %s",
+                        ConQuestReport.protocolString(flow.protocol()), flow.srcPort(), flow.dstPort(),
+                        stats.reports(), localTime(stats.firstSeenMillis()), localTime(stats.lastSeenMillis()));
+                print("----queue size max %s, mean %s, last %s",
+                        ConQuestReport.queueSizeString(stats.maxQueueSize()),
+                        ConQuestReport.queueSizeString(stats.meanQueueSize()),
+                        ConQuestReport.queueSizeString(stats.lastQueueSize()));
+            }
+        }
+        print("%d total reports received from %d flows", numReports, flows.size());
+    }
+
+    private static LocalDateTime localTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Groups reports by address pair, then by ports and protocol.
+     *
+     * @param reports the reports to group
+     * @return reports grouped by flow
+     */
+    static Map<IpPair, Map<PortPair, List<ConQuestReport>>> groupReports(Collection<ConQuestReport> reports) {
         Map<IpPair, Map<PortPair, List<ConQuestReport>>> groupedReports = new HashMap<>();
 
         for (ConQuestReport report : reports) {
@@ -96,31 +178,6 @@ public class ReadReportsCommand extends AbstractShellCommand {
                 return val;
             });
         }
-
-        int numFlows = 0;
-        for (var outerEntry : groupedReports.entrySet()) {
-            IpPair ipPair = outerEntry.getKey();
-            var portPairMap = outerEntry.getValue();
-            print("SrcIp %s, DstIp %s, %d Distinct 5-tuples",
-                    ipPair.src.toString(), ipPair.dst.toString(), portPairMap.size());
-            numFlows += portPairMap.size();
-            for (var innerEntry : portPairMap.entrySet()) {
-                PortPair portPair = innerEntry.getKey();
-                List<ConQuestReport> reportGroup = innerEntry.getValue();
-                reportGroup.sort((report1, report2) -> report1.getReportTime().compareTo(report2.getReportTime()));
-                LocalTime latestReceivedTime = LocalTime.MIN;
-                for (ConQuestReport report : reportGroup) {
-                    if (report.getReportTime().isAfter(latestReceivedTime)) {
-                        latestReceivedTime = report.getReportTime();
-                    }
-                }
-                print("--Proto %s, SrcPort %d, DstPort %d, %d reports",
-                        portPair.proto, portPair.src, portPair.dst, reportGroup.size());
-                for (ConQuestReport report : reportGroup) {
-                    print("----%s queue size at time %s", report.queueSizeString(), report.getReportTime().toString());
-                }
-            }
-        }
-        print("%d total reports received from %d flows", reports.size(), numFlows);
+        return groupedReports;
     }
 }
@@ -2,11 +2,11 @@ package org.princeton.conquest.cli;
 
 import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
-import org.onosproject.cli.AbstractShellCommand;
 import org.princeton.conquest.ConQuestReport;
 import org.princeton.conquest.ConQuestService;
+import org.princeton.conquest.ReportChunk;
+import org.princeton.conquest.ReportCursor;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -14,17 +14,38 @@ import java.util.List;
  */
 @Service
 @Command(scope = "conquest", name = "read-reports-flat",
-        description = "Grab all received ConQuest reports")
-public class ReadReportsFlatCommand extends AbstractShellCommand {
+        description = "Grab all received ConQuest reports, or those matching the given options")
+public class ReadReportsFlatCommand extends ReportQueryCommand {
     @Override
     protected void doExecute() {
         ConQuestService app = get(ConQuestService.class);
 
         int count = 0;
-        for (ConQuestReport report : app.getReceivedReports()) {
-            count += 1;
-            print("%d) %s", count, report.toString());
+        if (isQuery()) {
+            List<ConQuestReport> reports;
+            try {
+                reports = app.queryReports(query());
+            } catch (IllegalArgumentException e) {
+                print("Invalid query: %s", e.getMessage());
+                return;
+            }
+            for (ConQuestReport report : reports) {
+                count += 1;
+                print("%d) %s", count + offset, report.toString());
+            }
+            print("%d matching reports found", count);
+            return;
         }
-        print("%d reports found", count);
+
+        // Read the report store a chunk at a time rather than copying it whole
+        ReportCursor cursor = app.openReportCursor();
+        ReportChunk chunk = new ReportChunk(1024);
+        while (cursor.next(chunk)) {
+            for (int i = 0; i < chunk.size(); i++) {
+                count += 1;
+                print("%d) %s", count, chunk.report(i).toString());
+            }
+        }
+        print("%d reports found, %d older reports dropped", count, app.getEvictedReportCount());
     }
 }
@@ -0,0 +1,107 @@
+package org.princeton.conquest.cli;
+
+import org.apache.karaf.shell.api.action.Option;
+import org.onlab.packet.Ip4Prefix;
+import org.onosproject.cli.AbstractShellCommand;
+import org.princeton.conquest.Constants;
+import org.princeton.conquest.ReportQuery;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base of the ConQuest commands that read received reports, with options to select the reports to read.
+ */
+public abstract class ReportQueryCommand extends AbstractShellCommand {
+
+    @Option(name = "--src", aliases = "-s",
+            description = "Only show reports whose source address is in this IPv4 prefix")
+    String srcPrefix = null;
+
+    @Option(name = "--dst", aliases = "-d",
+            description = "Only show reports whose destination address is in this IPv4 prefix")
+    String dstPrefix = null;
+
+    @Option(name = "--src-port",
+            description = "Only show reports with this source L4 port")
+    int srcPort = -1;
+
+    @Option(name = "--dst-port",
+            description = "Only show reports with this destination L4 port")
+    int dstPort = -1;
+
+    @Option(name = "--proto", aliases = "-p",
+            description = "Only show reports with this IP protocol: \"tcp\", \"udp\", \"icmp\" or a number")
+    String protocol = null;
+
+    @Option(name = "--minutes", aliases = "-m",
+            description = "Only show reports received in the last given number of minutes")
+    long minutes = 0;
+
+    @Option(name = "--offset", aliases = "-o",
+            description = "Skip this many of the oldest matching reports")
+    int offset = 0;
+
+    @Option(name = "--limit", aliases = "-l",
+            description = "Maximum number of reports to show")
+    int limit = -1;
+
+    /**
+     * Returns whether any option narrows down the reports to read.
+     *
+     * @return true if the command was given a filter, offset or limit
+     */
+    boolean isQuery() {
+        return srcPrefix != null || dstPrefix != null || srcPort >= 0 || dstPort >= 0 || protocol != null
+                || minutes > 0 || offset > 0 || limit >= 0;
+    }
+
+    /**
+     * Builds the report query described by the options.
+     *
+     * @return the query
+     * @throws IllegalArgumentException if an option has an invalid value
+     */
+    ReportQuery query() {
+        ReportQuery.Builder query = ReportQuery.builder().offset(offset);
+        if (srcPrefix != null) {
+            query.srcPrefix(Ip4Prefix.valueOf(srcPrefix));
+        }
+        if (dstPrefix != null) {
+            query.dstPrefix(Ip4Prefix.valueOf(dstPrefix));
+        }
+        if (srcPort >= 0) {
+            query.srcPort(srcPort);
+        }
+        if (dstPort >= 0) {
+            query.dstPort(dstPort);
+        }
+        if (protocol != null) {
+            query.protocol(parseProtocol(protocol));
+        }
+        if (minutes > 0) {
+            long now = System.currentTimeMillis();
+            query.timeRange(now - TimeUnit.MINUTES.toMillis(minutes), Long.MAX_VALUE);
+        }
+        if (limit >= 0) {
+            query.limit(limit);
+        }
+        return query.build();
+    }
+
+    private static byte parseProtocol(String name) {
+        switch (name.toLowerCase()) {
+            case "tcp":
+                return Constants.PROTO_TCP;
+            case "udp":
+                return Constants.PROTO_UDP;
+            case "icmp":
+                return Constants.PROTO_ICMP;
+            default:
+                int number = Integer.parseInt(name);
+                if (number < 0 || number > 0xff) {
+                    throw new IllegalArgumentException("Invalid IP protocol " + name);
+                }
+                return (byte) number;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.princeton.conquest.cli;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+import org.princeton.conquest.ConQuestService;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConQuest command to show throughput and latency of the ingest, mitigation and unblock paths.
+ */
+@Service
+@Command(scope = "conquest", name = "stats",
+        description = "Show ConQuest rates, counters and latency percentiles")
+public class StatsCommand extends AbstractShellCommand {
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Override
+    protected void doExecute() {
+        ConQuestService app = get(ConQuestService.class);
+        for (Map.Entry<String, Metric> entry : app.getMetrics().entrySet()) {
+            String name = entry.getKey();
+            Metric metric = entry.getValue();
+            if (metric instanceof Timer) {
+                Timer timer = (Timer) metric;
+                Snapshot snapshot = timer.getSnapshot();
+                print("%s: count=%d rate=%.1f/s p50=%.3fms p99=%.3fms max=%.3fms", name,
+                      timer.getCount(), timer.getOneMinuteRate(),
+                      snapshot.getMedian() / NANOS_PER_MILLI, snapshot.get99thPercentile() / NANOS_PER_MILLI,
+                      snapshot.getMax() / NANOS_PER_MILLI);
+            } else if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                Snapshot snapshot = histogram.getSnapshot();
+                print("%s: count=%d p50=%.1f p99=%.1f max=%d", name, histogram.getCount(),
+                      snapshot.getMedian(), snapshot.get99thPercentile(), snapshot.getMax());
+            } else if (metric instanceof Meter) {
+                Meter meter = (Meter) metric;
+                print("%s: count=%d rate=%.1f/s 5m=%.1f/s mean=%.1f/s", name, meter.getCount(),
+                      meter.getOneMinuteRate(), meter.getFiveMinuteRate(), meter.getMeanRate());
+            } else if (metric instanceof Counter) {
+                print("%s: %d", name, ((Counter) metric).getCount());
+            } else if (metric instanceof Gauge) {
+                print("%s: %s", name, ((Gauge<?>) metric).getValue());
+            }
+        }
+    }
+}
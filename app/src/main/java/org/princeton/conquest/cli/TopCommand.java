@@ -0,0 +1,77 @@
+package org.princeton.conquest.cli;
+
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+import org.princeton.conquest.ConQuestService;
+import org.princeton.conquest.HeavyHitter;
+
+import java.util.List;
+
+/**
+ * ConQuest command to show the flows and addresses responsible for the most congestion reports.
+ */
+@Service
+@Command(scope = "conquest", name = "top",
+        description = "Show the flows, sources or destinations that caused the most reports or queue occupancy")
+public class TopCommand extends AbstractShellCommand {
+
+    @Argument(index = 0, name = "count",
+            description = "Number of heavy hitters to show",
+            required = false)
+    int count = 10;
+
+    @Option(name = "--by", aliases = "-b",
+            description = "Group reports by \"flow\", \"src\" or \"dst\"")
+    String by = "flow";
+
+    @Option(name = "--rank", aliases = "-r",
+            description = "Rank by number of \"reports\" or total reported \"queue\" size")
+    String rank = "reports";
+
+    @Override
+    protected void doExecute() {
+        HeavyHitter.Dimension dimension;
+        switch (by) {
+            case "flow":
+                dimension = HeavyHitter.Dimension.FLOW;
+                break;
+            case "src":
+                dimension = HeavyHitter.Dimension.SOURCE;
+                break;
+            case "dst":
+                dimension = HeavyHitter.Dimension.DESTINATION;
+                break;
+            default:
+                print("Unknown grouping \"%s\", expected flow, src or dst", by);
+                return;
+        }
+        HeavyHitter.Metric metric;
+        switch (rank) {
+            case "reports":
+                metric = HeavyHitter.Metric.REPORTS;
+                break;
+            case "queue":
+                metric = HeavyHitter.Metric.QUEUE_SIZE;
+                break;
+            default:
+                print("Unknown ranking \"%s\", expected reports or queue", rank);
+                return;
+        }
+
+        ConQuestService app = get(ConQuestService.class);
+        List<HeavyHitter> heavyHitters = app.getHeavyHitters(dimension, metric, count);
+        if (heavyHitters.isEmpty()) {
+            print("No reports received.");
+            return;
+        }
+        int position = 0;
+        for (HeavyHitter heavyHitter : heavyHitters) {
+            position += 1;
+            print("%d) %s: %d reports, total queue size %d (error <= %d)", position, heavyHitter.key(),
+                  heavyHitter.reports(), heavyHitter.queueSize(), heavyHitter.error());
+        }
+    }
+}
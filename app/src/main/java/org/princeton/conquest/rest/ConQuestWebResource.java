@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest.rest;
+
+import org.onosproject.rest.AbstractWebResource;
+import org.princeton.conquest.ConQuestService;
+import org.princeton.conquest.ReportChunk;
+import org.princeton.conquest.ReportCursor;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.nio.ByteBuffer;
+
+/**
+ * Exports the reports received by the ConQuest app.
+ */
+@Path("reports")
+public class ConQuestWebResource extends AbstractWebResource {
+
+    /**
+     * Media type of newline-delimited JSON.
+     */
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Streams the received ConQuest reports as newline-delimited JSON, oldest first. The report store is read a
+     * chunk at a time and each chunk is sent as soon as it is encoded, using chunked transfer encoding, so the
+     * reports are never all held in memory.
+     *
+     * @return 200 OK with one JSON object per report
+     */
+    @GET
+    @Produces(NDJSON)
+    public Response getReports() {
+        ReportCursor cursor = get(ConQuestService.class).openReportCursor();
+        StreamingOutput body = output -> {
+            ReportChunk chunk = new ReportChunk(CHUNK_SIZE);
+            while (cursor.next(chunk)) {
+                ByteBuffer lines = chunk.toJsonLines();
+                output.write(lines.array(), lines.arrayOffset() + lines.position(), lines.remaining());
+                output.flush();
+            }
+        };
+        return Response.ok(body).build();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TrafficSelector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building what the mitigation backends install to block a flow: the traffic selector of a segment routing drop
+ * policy, and the ACL drop rule.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BlockRuleBenchmark {
+
+    /** Number of distinct flows cycled through. */
+    @Param({"16", "65536"})
+    int flowCount;
+
+    private final ApplicationId appId = new DefaultApplicationId(1, Constants.APP_NAME);
+    private final DeviceId deviceId = DeviceId.deviceId("device:leaf1");
+    private FlowKey[] keys;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        byte[][] frames = ReportFrames.randomFrames(flowCount, 1);
+        ConQuestHeader header = new ConQuestHeader();
+        keys = new FlowKey[flowCount];
+        for (int i = 0; i < flowCount; i++) {
+            header.wrap(ByteBuffer.wrap(frames[i]));
+            keys[i] = FlowKey.of(header.srcIp(), header.dstIp(), header.srcPort(), header.dstPort(),
+                                 header.protocol());
+        }
+    }
+
+    private FlowKey nextKey() {
+        int index = next;
+        next = index + 1 == flowCount ? 0 : index + 1;
+        return keys[index];
+    }
+
+    @Benchmark
+    public TrafficSelector policySelector() {
+        return PolicyMitigationBackend.buildSelector(nextKey());
+    }
+
+    @Benchmark
+    public FlowRule aclDropRule() {
+        return AclMitigationBackend.buildAclDropRule(appId, deviceId, nextKey());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic flows reported by the load harness, and the distribution reports are drawn from.
+ * <p>
+ * Every flow has a pre-built report frame, so generating a report costs one random draw. Flows are reported
+ * uniformly, with Zipf-distributed popularity, or as an incast where many sources send to one destination.
+ */
+abstract class FlowDistribution {
+
+    private final FlowKey[] keys;
+    private final byte[][] frames;
+
+    private FlowDistribution(FlowKey[] keys, Random random) {
+        this.keys = keys;
+        this.frames = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            frames[i] = ReportFrames.frame(keys[i].srcIp(), keys[i].dstIp(), (short) keys[i].srcPort(),
+                                           (short) keys[i].dstPort(), keys[i].protocol(), random.nextInt(1 << 20));
+        }
+    }
+
+    /**
+     * Creates a flow distribution by name.
+     *
+     * @param name     {@code uniform}, {@code zipf} or {@code incast}
+     * @param flows    number of distinct flows
+     * @param exponent exponent of the Zipf distribution; ignored by the others
+     * @param seed     random seed, so runs are repeatable
+     * @return the distribution
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static FlowDistribution of(String name, int flows, double exponent, long seed) {
+        Random random = new Random(seed);
+        switch (name) {
+            case "uniform":
+                return new Uniform(randomFlows(flows, random), random);
+            case "zipf":
+                return new Zipf(randomFlows(flows, random), random, exponent);
+            case "incast":
+                return new Uniform(incastFlows(flows, random), random);
+            default:
+                throw new IllegalArgumentException("Unknown flow distribution " + name);
+        }
+    }
+
+    /**
+     * Returns the number of distinct flows.
+     *
+     * @return number of flows
+     */
+    int flowCount() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the 5-tuple of a flow.
+     *
+     * @param flow flow index
+     * @return the flow key
+     */
+    FlowKey key(int flow) {
+        return keys[flow];
+    }
+
+    /**
+     * Returns the report frame of a flow. Frames are shared and must not be modified.
+     *
+     * @param flow flow index
+     * @return the frame
+     */
+    byte[] frame(int flow) {
+        return frames[flow];
+    }
+
+    /**
+     * Draws the flow of the next report.
+     *
+     * @param random the caller's random generator
+     * @return flow index
+     */
+    abstract int nextFlow(SplittableRandom random);
+
+    private static final class Uniform extends FlowDistribution {
+        private Uniform(FlowKey[] keys, Random random) {
+            super(keys, random);
+        }
+
+        @Override
+        int nextFlow(SplittableRandom random) {
+            return random.nextInt(flowCount());
+        }
+    }
+
+    /**
+     * Flow {@code k} is drawn with probability proportional to {@code 1 / (k + 1)^exponent}, by binary search of the
+     * cumulative distribution.
+     */
+    private static final class Zipf extends FlowDistribution {
+        private final double[] cumulative;
+
+        private Zipf(FlowKey[] keys, Random random, double exponent) {
+            super(keys, random);
+            cumulative = new double[flowCount()];
+            double sum = 0;
+            for (int k = 0; k < cumulative.length; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < cumulative.length; k++) {
+                cumulative[k] /= sum;
+            }
+        }
+
+        @Override
+        int nextFlow(SplittableRandom random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+        }
+    }
+
+    private static FlowKey[] randomFlows(int count, Random random) {
+        FlowKey[] keys = new FlowKey[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = FlowKey.of(random.nextInt(), random.nextInt(), (short) random.nextInt(),
+                                 (short) random.nextInt(),
+                                 random.nextBoolean() ? Constants.PROTO_TCP : Constants.PROTO_UDP);
+        }
+        return keys;
+    }
+
+    /**
+     * Builds TCP flows from distinct sources to a single destination address and port, as in a partition-aggregate
+     * workload where many workers answer one aggregator at once.
+     */
+    private static FlowKey[] incastFlows(int count, Random random) {
+        int dstIp = random.nextInt();
+        short dstPort = (short) (1024 + random.nextInt(1 << 15));
+        FlowKey[] keys = new FlowKey[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = FlowKey.of(random.nextInt(), dstIp, (short) random.nextInt(), dstPort, Constants.PROTO_TCP);
+        }
+        return keys;
+    }
+}
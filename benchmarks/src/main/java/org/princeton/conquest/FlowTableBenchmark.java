@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-flow statistics kept at ingest: updating them for each report, with and without flows being evicted, and
+ * reading them all as the read-reports command does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FlowTableBenchmark {
+
+    private static final int CAPACITY = 16384;
+
+    // Below, at and well above the table capacity
+    @Param({"1000", "16384", "100000"})
+    int flowCount;
+
+    private int[] srcIps;
+    private int[] dstIps;
+    private short[] srcPorts;
+    private FlowTable table;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        srcIps = new int[flowCount];
+        dstIps = new int[flowCount];
+        srcPorts = new short[flowCount];
+        for (int i = 0; i < flowCount; i++) {
+            srcIps[i] = random.nextInt();
+            dstIps[i] = random.nextInt();
+            srcPorts[i] = (short) random.nextInt();
+        }
+        table = new FlowTable(CAPACITY);
+        for (int i = 0; i < flowCount; i++) {
+            table.record(0, srcIps[i], dstIps[i], srcPorts[i], (short) 80, Constants.PROTO_TCP, i, i);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        int index = next;
+        next = (index + 1) % flowCount;
+        table.record(0, srcIps[index], dstIps[index], srcPorts[index], (short) 80, Constants.PROTO_TCP, index,
+                index);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<FlowStats> flows() {
+        return table.flows();
+    }
+}
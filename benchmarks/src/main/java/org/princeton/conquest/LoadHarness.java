@@ -0,0 +1,382 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.onlab.packet.DeserializationException;
+import org.onlab.packet.Ethernet;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.DefaultPacketContext;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketProcessor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import static org.princeton.conquest.OsgiPropertyConstants.DECODE_MODE;
+import static org.princeton.conquest.OsgiPropertyConstants.DECODE_MODE_LEGACY;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BACKEND;
+import static org.princeton.conquest.OsgiPropertyConstants.MITIGATION_BACKEND_ACL;
+
+/**
+ * Drives the ConQuest app end to end with synthetic report packet-ins, against in-memory stand-ins for the ONOS
+ * services, and reports the sustained report rate, the block decision latency and the heap growth.
+ * <p>
+ * Generator threads hand packet contexts carrying ConQuest reports to the app's packet processor at a fixed rate,
+ * as the packet service would. The block decision latency of a flow is the time from its first report until a
+ * block for it reaches the mitigation service; a flow is timed again after it is unblocked.
+ */
+public final class LoadHarness {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: LoadHarness [options]",
+            "  --rate <reports/s>          offered report rate, default 50000",
+            "  --duration <s>              measurement time, default 30",
+            "  --warmup <s>                time before measuring, default 5",
+            "  --flows <n>                 distinct reported flows, default 10000",
+            "  --distribution <name>       uniform, zipf or incast, default uniform",
+            "  --zipf-exponent <s>         exponent of the zipf distribution, default 1.1",
+            "  --devices <n>               devices sending reports, default 4",
+            "  --threads <n>               generator threads, default 2",
+            "  --block-ms <ms>             block duration, default 1000",
+            "  --policy-latency-us <us>    latency of each policy service call, default 0",
+            "  --flow-rule-latency-us <us> time until a flow rule batch completes, default 0",
+            "  --group-latency-us <us>     latency of each group service call, default 0",
+            "  --device-latency-us <us>    latency of each device service query, default 0",
+            "  --seed <n>                  random seed, default 1",
+            "  --set <name>=<value>        component property of the app, may be repeated");
+
+    private static final long MAX_LAG_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long HEAP_SAMPLE_MS = 100;
+    private static final double MB = 1024 * 1024;
+
+    private final Map<String, String> options;
+    private final Hashtable<String, Object> properties;
+
+    private volatile boolean running = true;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder behind = new LongAdder();
+
+    private LoadHarness(Map<String, String> options, Hashtable<String, Object> properties) {
+        this.options = options;
+        this.properties = properties;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        Hashtable<String, Object> properties = new Hashtable<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--help".equals(arg) || !arg.startsWith("--") || i + 1 == args.length) {
+                System.out.println(USAGE);
+                System.exit("--help".equals(arg) ? 0 : 2);
+            }
+            String value = args[++i];
+            if ("--set".equals(arg)) {
+                int split = value.indexOf('=');
+                if (split < 1) {
+                    System.out.println(USAGE);
+                    System.exit(2);
+                }
+                properties.put(value.substring(0, split), value.substring(split + 1));
+            } else {
+                options.put(arg.substring(2), value);
+            }
+        }
+        new LoadHarness(options, properties).run();
+    }
+
+    private void run() throws Exception {
+        final long rate = longOption("rate", 50000);
+        final long durationSeconds = longOption("duration", 30);
+        final long warmupSeconds = longOption("warmup", 5);
+        final int threads = (int) longOption("threads", 2);
+        final int deviceCount = (int) longOption("devices", 4);
+        final long seed = longOption("seed", 1);
+        final FlowDistribution distribution = FlowDistribution.of(options.getOrDefault("distribution", "uniform"),
+                (int) longOption("flows", 10000), Double.parseDouble(options.getOrDefault("zipf-exponent", "1.1")),
+                seed);
+
+        Path dataDirectory = null;
+        if (System.getProperty("karaf.data") == null) {
+            // Keep the report log out of the working directory
+            dataDirectory = Files.createTempDirectory("conquest-harness");
+            System.setProperty("karaf.data", dataDirectory.toString());
+        }
+
+        List<DeviceId> deviceIds = new ArrayList<>();
+        ConnectPoint[] ingress = new ConnectPoint[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            deviceIds.add(DeviceId.deviceId("device:harness-" + i));
+            ingress[i] = new ConnectPoint(deviceIds.get(i), PortNumber.portNumber(1));
+        }
+        BlockLatency blockLatency = new BlockLatency(distribution, deviceIds.get(0),
+                MITIGATION_BACKEND_ACL.equals(properties.get(MITIGATION_BACKEND)));
+        ServiceStandIns services = new ServiceStandIns(deviceIds,
+                microsOption("policy-latency-us"), microsOption("flow-rule-latency-us"),
+                microsOption("group-latency-us"), microsOption("device-latency-us"), blockLatency);
+        ConQuest app = new ConQuest();
+        services.wire(app);
+        app.activate(ServiceStandIns.componentContext(properties));
+        app.setBlockDuration((int) longOption("block-ms", 1000));
+        PacketProcessor processor = services.processor();
+        Ethernet[] parsed = DECODE_MODE_LEGACY.equals(properties.get(DECODE_MODE)) ? parse(distribution) : null;
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        final long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        AtomicLong heapPeak = new AtomicLong(heapBefore);
+        ScheduledExecutorService heapSampler = Executors.newSingleThreadScheduledExecutor();
+        heapSampler.scheduleAtFixedRate(
+                () -> heapPeak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                HEAP_SAMPLE_MS, HEAP_SAMPLE_MS, TimeUnit.MILLISECONDS);
+
+        final double intervalNanos = 1e9 * threads / rate;
+        List<Thread> generators = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final SplittableRandom random = new SplittableRandom(seed + i);
+            Thread generator = new Thread(() -> generate(processor, distribution, parsed, ingress, blockLatency,
+                                                         random, intervalNanos), "harness-generator-" + i);
+            generator.setDaemon(true);
+            generators.add(generator);
+            generator.start();
+        }
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        Meter reports = (Meter) app.getMetrics().get("Ingest.reports");
+        blockLatency.reset();
+        final long sentBefore = sent.sum();
+        final long reportsBefore = reports.getCount();
+        final long startNanos = System.nanoTime();
+
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        final double offeredRate = (sent.sum() - sentBefore) / elapsedSeconds;
+        final double processedRate = (reports.getCount() - reportsBefore) / elapsedSeconds;
+        running = false;
+        for (Thread generator : generators) {
+            generator.join();
+        }
+        heapSampler.shutdownNow();
+        System.gc();
+        final long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+        Map<String, Metric> metrics = app.getMetrics();
+        Map<String, Long> ingest = app.getIngestCounters();
+        Map<String, Long> blocks = app.getBlockCounters();
+        Snapshot decision = blockLatency.timer().getSnapshot();
+        Snapshot processing = ((Timer) metrics.get("Ingest.processTime")).getSnapshot();
+        Snapshot batching = ((Timer) metrics.get("Mitigation.batchLatency")).getSnapshot();
+
+        print("Offered load      %.0f reports/s from %d generators, %d reports behind schedule",
+              offeredRate, threads, behind.sum());
+        print("Processed         %.0f reports/s", processedRate);
+        print("Admission         %d admitted, %d sampled, %d shed",
+              ingest.get("admitted"), ingest.get("sampled"), ingest.get("shed"));
+        print("Blocks            %d installed, %d extended, %d unblocked, %d active",
+              blocks.get("installed"), blocks.get("extended"), blocks.get("unblocked"), blocks.get("active"));
+        print("Block decision    %s (%d flows)", percentiles(decision), blockLatency.timer().getCount());
+        print("Report processing %s", percentiles(processing));
+        print("Mitigation batch  %s", percentiles(batching));
+        print("Heap              %.1f MB before, %.1f MB peak, %.1f MB after, %+.1f MB growth",
+              heapBefore / MB, heapPeak.get() / MB, heapAfter / MB, (heapAfter - heapBefore) / MB);
+        print("{\"offeredRate\":%.1f,\"processedRate\":%.1f,\"shed\":%d,\"blocksInstalled\":%d,"
+                      + "\"blockDecisionP50Ms\":%.3f,\"blockDecisionP99Ms\":%.3f,\"blockDecisionMaxMs\":%.3f,"
+                      + "\"heapBeforeMb\":%.1f,\"heapPeakMb\":%.1f,\"heapAfterMb\":%.1f}",
+              offeredRate, processedRate, ingest.get("shed"), blocks.get("installed"),
+              millis(decision.getMedian()), millis(decision.get99thPercentile()), millis(decision.getMax()),
+              heapBefore / MB, heapPeak.get() / MB, heapAfter / MB);
+
+        app.deactivate();
+        services.shutdown();
+        if (dataDirectory != null) {
+            delete(dataDirectory);
+        }
+    }
+
+    /**
+     * Sends reports at a fixed rate until the harness stops. A generator that falls behind by more than
+     * {@link #MAX_LAG_NANOS} skips ahead instead of sending a burst to catch up.
+     */
+    private void generate(PacketProcessor processor, FlowDistribution distribution, Ethernet[] parsed,
+                          ConnectPoint[] ingress, BlockLatency blockLatency, SplittableRandom random,
+                          double intervalNanos) {
+        double due = System.nanoTime();
+        while (running) {
+            final long now = System.nanoTime();
+            if (now < due) {
+                long wait = (long) due - now;
+                if (wait > SPIN_NANOS) {
+                    LockSupport.parkNanos(wait - SPIN_NANOS);
+                } else {
+                    Thread.onSpinWait();
+                }
+                continue;
+            }
+            if (now - due > MAX_LAG_NANOS) {
+                behind.add((long) ((now - due) / intervalNanos));
+                due = now;
+            }
+            final int flow = distribution.nextFlow(random);
+            blockLatency.reported(flow, now);
+            InboundPacket packet = new DefaultInboundPacket(ingress[flow % ingress.length],
+                    parsed == null ? null : parsed[flow], ByteBuffer.wrap(distribution.frame(flow)));
+            processor.process(new HarnessPacketContext(packet));
+            sent.increment();
+            due += intervalNanos;
+        }
+    }
+
+    private static Ethernet[] parse(FlowDistribution distribution) throws DeserializationException {
+        Ethernet[] parsed = new Ethernet[distribution.flowCount()];
+        for (int i = 0; i < parsed.length; i++) {
+            byte[] frame = distribution.frame(i);
+            parsed[i] = Ethernet.deserializer().deserialize(frame, 0, frame.length);
+        }
+        return parsed;
+    }
+
+    private long longOption(String name, long defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    private long microsOption(String name) {
+        return TimeUnit.MICROSECONDS.toNanos(longOption(name, 0));
+    }
+
+    private static String percentiles(Snapshot snapshot) {
+        return String.format(Locale.ROOT, "p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms",
+                             millis(snapshot.getMedian()), millis(snapshot.get99thPercentile()),
+                             millis(snapshot.get999thPercentile()), millis(snapshot.getMax()));
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1e6;
+    }
+
+    private static void print(String format, Object... args) {
+        System.out.println(String.format(Locale.ROOT, format, args));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * A packet-in handed to the app. Nothing is ever sent back out.
+     */
+    private static final class HarnessPacketContext extends DefaultPacketContext {
+        private HarnessPacketContext(InboundPacket packet) {
+            super(System.currentTimeMillis(), packet, null, false);
+        }
+
+        @Override
+        public void send() {
+        }
+    }
+
+    /**
+     * Times each flow from its first report until the mitigation services see a block for it.
+     */
+    private static final class BlockLatency implements ServiceStandIns.MitigationObserver {
+        // Marks a flow that is blocked, so its reports are not timed until it is unblocked again
+        private static final long BLOCKED = -1;
+
+        private final Map<TrafficSelector, Integer> flowsBySelector = new HashMap<>();
+        private final AtomicLongArray firstReported;
+        // Offsets nanoTime so that every report time is positive
+        private final long origin = System.nanoTime() - 1;
+        private volatile Timer timer = new Timer();
+
+        private BlockLatency(FlowDistribution distribution, DeviceId deviceId, boolean acl) {
+            DefaultApplicationId appId = new DefaultApplicationId(1, Constants.APP_NAME);
+            for (int flow = 0; flow < distribution.flowCount(); flow++) {
+                FlowKey key = distribution.key(flow);
+                flowsBySelector.put(acl ? AclMitigationBackend.buildAclDropRule(appId, deviceId, key).selector()
+                                        : PolicyMitigationBackend.buildSelector(key), flow);
+            }
+            firstReported = new AtomicLongArray(distribution.flowCount());
+        }
+
+        private void reported(int flow, long nanos) {
+            if (firstReported.get(flow) == 0) {
+                firstReported.compareAndSet(flow, 0, nanos - origin);
+            }
+        }
+
+        @Override
+        public void blocked(TrafficSelector selector) {
+            Integer flow = flowsBySelector.get(selector);
+            if (flow == null) {
+                return;
+            }
+            long first = firstReported.getAndSet(flow, BLOCKED);
+            if (first > 0) {
+                timer.update(System.nanoTime() - origin - first, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void unblocked(TrafficSelector selector) {
+            Integer flow = flowsBySelector.get(selector);
+            if (flow != null) {
+                firstReported.set(flow, 0);
+            }
+        }
+
+        private Timer timer() {
+            return timer;
+        }
+
+        private void reset() {
+            timer = new Timer();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.packet.DeserializationException;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.Ip4Address;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a ConQuest report from a raw packet-in frame, with the flyweight decoder and with the legacy decoder
+ * that parses the frame into an {@link Ethernet} packet first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReportDecodeBenchmark {
+
+    /** Number of distinct frames cycled through, to vary how much of the input stays in cache. */
+    @Param({"16", "1024", "65536"})
+    int frameCount;
+
+    private byte[][] frames;
+    private ByteBuffer[] buffers;
+    private final ConQuestHeader header = new ConQuestHeader();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        frames = ReportFrames.randomFrames(frameCount, 1);
+        buffers = new ByteBuffer[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            buffers[i] = ByteBuffer.wrap(frames[i]);
+        }
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == frameCount ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public void flyweightFields(Blackhole blackhole) {
+        if (header.wrap(buffers[nextIndex()])) {
+            blackhole.consume(header.srcIp());
+            blackhole.consume(header.dstIp());
+            blackhole.consume(header.srcPort());
+            blackhole.consume(header.dstPort());
+            blackhole.consume(header.protocol());
+            blackhole.consume(header.queueSize());
+        }
+    }
+
+    @Benchmark
+    public ConQuestReport flyweightReport() {
+        return header.wrap(buffers[nextIndex()]) ? header.toReport(System.currentTimeMillis()) : null;
+    }
+
+    /**
+     * The steps of the legacy decoder in {@code ConQuest.processLegacy}, starting from the raw frame that ONOS parses
+     * before handing the packet-in to the app.
+     */
+    @Benchmark
+    public ConQuestReport legacy() throws DeserializationException {
+        byte[] frame = frames[nextIndex()];
+        Ethernet packet = Ethernet.deserializer().deserialize(frame, 0, frame.length);
+        if (packet.getEtherType() != Constants.CONQUEST_ETHERTYPE) {
+            return null;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(packet.getPayload().serialize());
+        Ip4Address srcIp = Ip4Address.valueOf(bb.getInt());
+        Ip4Address dstIp = Ip4Address.valueOf(bb.getInt());
+        short srcPort = bb.getShort();
+        short dstPort = bb.getShort();
+        byte protocol = bb.get();
+        int queueSize = bb.getInt();
+        return new ConQuestReport(srcIp.toInt(), dstIp.toInt(), srcPort, dstPort, protocol, queueSize,
+                                  System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.packet.Ip4Address;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting reports for display, for queue sizes in each of the units {@link ConQuestReport#queueSizeString()}
+ * picks between.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReportFormatBenchmark {
+
+    @Param({"512", "65536", "16777216"})
+    int queueSize;
+
+    private ConQuestReport report;
+
+    @Setup
+    public void setUp() {
+        report = new ConQuestReport(Ip4Address.valueOf("10.0.0.1").toInt(), Ip4Address.valueOf("10.0.0.2").toInt(),
+                                    (short) 1234, (short) 80, Constants.PROTO_TCP, queueSize,
+                                    System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public String queueSizeString() {
+        return report.queueSizeString();
+    }
+
+    @Benchmark
+    public String reportToString() {
+        return report.toString();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Builds synthetic packet-ins carrying ConQuest reports, as a switch clones them to the controller.
+ */
+public final class ReportFrames {
+
+    private static final int ETHERNET_HEADER_LENGTH = 14;
+    public static final int FRAME_LENGTH = ETHERNET_HEADER_LENGTH + ConQuestHeader.LENGTH;
+
+    private ReportFrames() {
+    }
+
+    /**
+     * Builds an untagged Ethernet frame carrying one ConQuest report.
+     *
+     * @param srcIp     source IPv4 address of the reported flow
+     * @param dstIp     destination IPv4 address of the reported flow
+     * @param srcPort   source L4 port of the reported flow
+     * @param dstPort   destination L4 port of the reported flow
+     * @param protocol  IP protocol of the reported flow
+     * @param queueSize reported queue occupancy
+     * @return the frame
+     */
+    public static byte[] frame(int srcIp, int dstIp, short srcPort, short dstPort, byte protocol, int queueSize) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_LENGTH);
+        // Destination and source MAC addresses, left zero
+        frame.position(12);
+        frame.putShort(Constants.CONQUEST_ETHERTYPE);
+        frame.putInt(srcIp);
+        frame.putInt(dstIp);
+        frame.putShort(srcPort);
+        frame.putShort(dstPort);
+        frame.put(protocol);
+        frame.putInt(queueSize);
+        return frame.array();
+    }
+
+    /**
+     * Builds frames for distinct random TCP and UDP flows.
+     *
+     * @param count number of frames
+     * @param seed  random seed, so runs are repeatable
+     * @return the frames
+     */
+    public static byte[][] randomFrames(int count, long seed) {
+        Random random = new Random(seed);
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            frames[i] = frame(random.nextInt(), random.nextInt(), (short) random.nextInt(), (short) random.nextInt(),
+                              random.nextBoolean() ? Constants.PROTO_TCP : Constants.PROTO_UDP,
+                              random.nextInt(1 << 20));
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.metrics.MetricsManager;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.cluster.ClusterService;
+import org.onosproject.cluster.ControllerNode;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.core.CoreService;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.mastership.MastershipService;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketService;
+import org.onosproject.net.pi.model.PiPipeconf;
+import org.onosproject.net.pi.model.PiPipeconfId;
+import org.onosproject.net.pi.service.PiPipeconfService;
+import org.onosproject.net.pi.service.PiPipeconfWatchdogService;
+import org.onosproject.segmentrouting.policy.api.PolicyId;
+import org.onosproject.segmentrouting.policy.api.PolicyService;
+import org.onosproject.segmentrouting.policy.api.TrafficMatch;
+import org.onosproject.segmentrouting.policy.api.TrafficMatchId;
+import org.onosproject.store.service.AsyncAtomicValue;
+import org.onosproject.store.service.AsyncDistributedSet;
+import org.onosproject.store.service.AtomicValue;
+import org.onosproject.store.service.AtomicValueBuilder;
+import org.onosproject.store.service.DistributedSet;
+import org.onosproject.store.service.DistributedSetBuilder;
+import org.onosproject.store.service.EventuallyConsistentMap;
+import org.onosproject.store.service.EventuallyConsistentMapBuilder;
+import org.onosproject.store.service.StorageService;
+import org.osgi.service.component.ComponentContext;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-memory stand-ins for the ONOS services ConQuest depends on, so the app can run outside a controller.
+ * <p>
+ * Each service is a dynamic proxy: the calls the app relies on are answered by handlers, the distributed primitives
+ * are backed by concurrent collections, and every other call returns an empty value. Calls that would reach the
+ * network or the cluster in a real controller wait for an injected latency first: policy, group and device calls
+ * block the caller, while flow rule batches complete their callback once the latency has passed.
+ */
+final class ServiceStandIns {
+
+    /**
+     * Observes the blocks and unblocks that reach the mitigation services.
+     */
+    interface MitigationObserver {
+        /**
+         * Called when a traffic match or flow rule blocking a flow is submitted.
+         *
+         * @param selector selector of the blocked flow
+         */
+        void blocked(TrafficSelector selector);
+
+        /**
+         * Called when a traffic match or flow rule blocking a flow is removed.
+         *
+         * @param selector selector of the unblocked flow
+         */
+        void unblocked(TrafficSelector selector);
+    }
+
+    private static final NodeId LOCAL_NODE = NodeId.nodeId("harness");
+    private static final PiPipeconfId PIPECONF_ID = new PiPipeconfId("org.princeton.conquest.harness");
+
+    private final Map<DeviceId, Device> devices = new LinkedHashMap<>();
+    private final AtomicReference<PacketProcessor> processor = new AtomicReference<>();
+    private final Map<TrafficMatchId, TrafficSelector> trafficMatches = new ConcurrentHashMap<>();
+    private final AtomicLong nextTrafficMatch = new AtomicLong();
+    private final ScheduledExecutorService flowRuleCompletions;
+    private final MitigationObserver observer;
+
+    private final long policyLatencyNanos;
+    private final long flowRuleLatencyNanos;
+    private final long groupLatencyNanos;
+    private final long deviceLatencyNanos;
+
+    /**
+     * Creates the stand-ins.
+     *
+     * @param deviceIds            the available devices, all running a ConQuest pipeconf
+     * @param policyLatencyNanos   latency of each policy service call
+     * @param flowRuleLatencyNanos time until a flow rule batch completes
+     * @param groupLatencyNanos    latency of each group service call
+     * @param deviceLatencyNanos   latency of each device service query
+     * @param observer             observes blocks and unblocks
+     */
+    ServiceStandIns(List<DeviceId> deviceIds, long policyLatencyNanos, long flowRuleLatencyNanos,
+                    long groupLatencyNanos, long deviceLatencyNanos, MitigationObserver observer) {
+        for (DeviceId deviceId : deviceIds) {
+            devices.put(deviceId, new Stub<>(Device.class).on("id", args -> deviceId).build());
+        }
+        this.policyLatencyNanos = policyLatencyNanos;
+        this.flowRuleLatencyNanos = flowRuleLatencyNanos;
+        this.groupLatencyNanos = groupLatencyNanos;
+        this.deviceLatencyNanos = deviceLatencyNanos;
+        this.observer = observer;
+        this.flowRuleCompletions = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "harness-flow-rules");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Injects the stand-ins into the references of an app instance that has not been activated yet.
+     *
+     * @param app the app
+     */
+    void wire(ConQuest app) {
+        app.deviceService = deviceService();
+        app.policyService = policyService();
+        app.flowRuleService = flowRuleService();
+        app.coreService = new Stub<>(CoreService.class)
+                .on("registerApplication", args -> new DefaultApplicationId(1, (String) args[0]))
+                .on("getAppId", args -> new DefaultApplicationId(1, (String) args[0]))
+                .build();
+        app.groupService = new Stub<>(GroupService.class)
+                .on("addGroup", args -> pause(groupLatencyNanos))
+                .on("removeGroup", args -> pause(groupLatencyNanos))
+                .build();
+        app.packetService = new Stub<>(PacketService.class)
+                .on("addProcessor", args -> {
+                    processor.set((PacketProcessor) args[0]);
+                    return null;
+                })
+                .on("removeProcessor", args -> processor.compareAndSet((PacketProcessor) args[0], null))
+                .build();
+        PiPipeconf pipeconf = new Stub<>(PiPipeconf.class).on("id", args -> PIPECONF_ID).build();
+        app.pipeconfService = new Stub<>(PiPipeconfService.class)
+                .on("getPipeconf", args -> Optional.of(pipeconf))
+                .on("ofDevice", args -> Optional.of(PIPECONF_ID))
+                .build();
+        app.pipeconfWatchdogService = new Stub<>(PiPipeconfWatchdogService.class).build();
+        app.cfgService = new Stub<>(ComponentConfigService.class).build();
+        app.metricsService = new MetricsManager();
+        app.storageService = storageService();
+        ControllerNode localNode = new Stub<>(ControllerNode.class).on("id", args -> LOCAL_NODE).build();
+        app.clusterService = new Stub<>(ClusterService.class).on("getLocalNode", args -> localNode).build();
+        app.mastershipService = new Stub<>(MastershipService.class)
+                .on("isLocalMaster", args -> true)
+                .on("getMasterFor", args -> LOCAL_NODE)
+                .build();
+    }
+
+    /**
+     * Builds a component context carrying component properties.
+     *
+     * @param properties the properties
+     * @return the context
+     */
+    static ComponentContext componentContext(Dictionary<String, Object> properties) {
+        return new Stub<>(ComponentContext.class).on("getProperties", args -> properties).build();
+    }
+
+    /**
+     * Returns the packet processor the app registered.
+     *
+     * @return the processor, or null if the app is not active
+     */
+    PacketProcessor processor() {
+        return processor.get();
+    }
+
+    /**
+     * Stops completing flow rule batches.
+     */
+    void shutdown() {
+        flowRuleCompletions.shutdownNow();
+    }
+
+    private DeviceService deviceService() {
+        Collection<Device> available = Collections.unmodifiableCollection(devices.values());
+        return new Stub<>(DeviceService.class)
+                .on("getDevices", args -> pause(deviceLatencyNanos, available))
+                .on("getAvailableDevices", args -> pause(deviceLatencyNanos, available))
+                .on("getDevice", args -> pause(deviceLatencyNanos, devices.get(args[0])))
+                .on("isAvailable", args -> pause(deviceLatencyNanos, devices.containsKey(args[0])))
+                .on("getDeviceCount", args -> devices.size())
+                .build();
+    }
+
+    private PolicyService policyService() {
+        return new Stub<>(PolicyService.class)
+                .on("addOrUpdatePolicy", args -> pause(policyLatencyNanos, PolicyId.of("harness-drop")))
+                .on("removePolicy", args -> pause(policyLatencyNanos, true))
+                .on("addOrUpdateTrafficMatch", args -> {
+                    TrafficSelector selector = ((TrafficMatch) args[0]).trafficSelector();
+                    TrafficMatchId id = TrafficMatchId.of("harness-" + nextTrafficMatch.incrementAndGet());
+                    trafficMatches.put(id, selector);
+                    observer.blocked(selector);
+                    return pause(policyLatencyNanos, id);
+                })
+                .on("removeTrafficMatch", args -> {
+                    TrafficSelector selector = trafficMatches.remove((TrafficMatchId) args[0]);
+                    if (selector != null) {
+                        observer.unblocked(selector);
+                    }
+                    return pause(policyLatencyNanos, selector != null);
+                })
+                .build();
+    }
+
+    private FlowRuleService flowRuleService() {
+        return new Stub<>(FlowRuleService.class)
+                .on("apply", args -> {
+                    FlowRuleOperations ops = (FlowRuleOperations) args[0];
+                    for (Set<FlowRuleOperation> stage : ops.stages()) {
+                        for (FlowRuleOperation op : stage) {
+                            if (op.type() == FlowRuleOperation.Type.REMOVE) {
+                                observer.unblocked(op.rule().selector());
+                            } else {
+                                observer.blocked(op.rule().selector());
+                            }
+                        }
+                    }
+                    FlowRuleOperationsContext callback = ops.callback();
+                    if (callback != null) {
+                        flowRuleCompletions.schedule(() -> callback.onSuccess(ops), flowRuleLatencyNanos,
+                                                     TimeUnit.NANOSECONDS);
+                    }
+                    return null;
+                })
+                .on("removeFlowRulesById", args -> pause(flowRuleLatencyNanos))
+                .build();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static StorageService storageService() {
+        return new Stub<>(StorageService.class)
+                .on("eventuallyConsistentMapBuilder", args -> builder(EventuallyConsistentMapBuilder.class,
+                        () -> new Stub<>(EventuallyConsistentMap.class)
+                                .delegateTo(new ConcurrentHashMap<>())
+                                .build()))
+                .on("setBuilder", args -> builder(DistributedSetBuilder.class, () -> {
+                    DistributedSet set = new Stub<>(DistributedSet.class)
+                            .delegateTo(ConcurrentHashMap.newKeySet())
+                            .build();
+                    return new Stub<>(AsyncDistributedSet.class).on("asDistributedSet", a -> set).build();
+                }))
+                .on("atomicValueBuilder", args -> builder(AtomicValueBuilder.class, () -> {
+                    AtomicValue value = new Stub<>(AtomicValue.class)
+                            .delegateTo(new AtomicReference<>())
+                            .build();
+                    return new Stub<>(AsyncAtomicValue.class).on("asAtomicValue", a -> value).build();
+                }))
+                .build();
+    }
+
+    /**
+     * Builds a stand-in for a primitive builder: every configuration call returns the builder, and build() returns a
+     * new primitive.
+     */
+    private static <B> B builder(Class<B> type, Supplier<Object> primitive) {
+        return new Stub<>(type).on("build", args -> primitive.get()).build();
+    }
+
+    private static Object pause(long nanos) {
+        return pause(nanos, null);
+    }
+
+    private static <T> T pause(long nanos, T result) {
+        if (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+        }
+        return result;
+    }
+
+    /**
+     * Builds a proxy for a service interface. A call is answered by the handler registered for its method name if
+     * there is one, or else by the public method of the delegate with the same signature. Methods left over return
+     * the proxy itself if it has the return type, as builder methods do, and an empty value otherwise.
+     *
+     * @param <T> the interface
+     */
+    private static final class Stub<T> {
+        private final Class<T> type;
+        private final Map<String, Function<Object[], Object>> handlers = new HashMap<>();
+        private final Map<Method, Optional<Method>> delegateMethods = new ConcurrentHashMap<>();
+        private Object delegate;
+
+        private Stub(Class<T> type) {
+            this.type = type;
+        }
+
+        private Stub<T> on(String method, Function<Object[], Object> handler) {
+            handlers.put(method, handler);
+            return this;
+        }
+
+        private Stub<T> delegateTo(Object target) {
+            this.delegate = target;
+            return this;
+        }
+
+        private T build() {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, this::invoke));
+        }
+
+        private Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final Object[] arguments = args == null ? new Object[0] : args;
+            Function<Object[], Object> handler = handlers.get(method.getName());
+            if (handler != null) {
+                return handler.apply(arguments);
+            }
+            if (delegate != null) {
+                Optional<Method> target = delegateMethods.computeIfAbsent(method, this::findDelegateMethod);
+                if (target.isPresent()) {
+                    try {
+                        return target.get().invoke(delegate, arguments);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == arguments[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + " stand-in";
+                default:
+                    break;
+            }
+            Class<?> returnType = method.getReturnType();
+            if (returnType != Object.class && returnType.isInstance(proxy)) {
+                return proxy;
+            }
+            return emptyValue(returnType);
+        }
+
+        /**
+         * Finds the delegate method to call, declared by a public class or interface of the delegate, since methods
+         * inherited from a non-public class cannot be invoked reflectively.
+         */
+        private Optional<Method> findDelegateMethod(Method method) {
+            Deque<Class<?>> types = new ArrayDeque<>(List.of(delegate.getClass()));
+            while (!types.isEmpty()) {
+                Class<?> candidate = types.poll();
+                try {
+                    Method target = candidate.getMethod(method.getName(), method.getParameterTypes());
+                    if (Modifier.isPublic(target.getDeclaringClass().getModifiers())) {
+                        return Optional.of(target);
+                    }
+                } catch (NoSuchMethodException e) {
+                    continue;
+                }
+                if (candidate.getSuperclass() != null) {
+                    types.add(candidate.getSuperclass());
+                }
+                types.addAll(Arrays.asList(candidate.getInterfaces()));
+            }
+            return Optional.empty();
+        }
+
+        private static Object emptyValue(Class<?> type) {
+            if (type == void.class) {
+                return null;
+            } else if (type.isPrimitive()) {
+                return Array.get(Array.newInstance(type, 1), 0);
+            } else if (type == Optional.class) {
+                return Optional.empty();
+            } else if (type == Set.class) {
+                return Collections.emptySet();
+            } else if (type == Map.class) {
+                return Collections.emptyMap();
+            } else if (type.isAssignableFrom(List.class)) {
+                return Collections.emptyList();
+            } else if (type == CompletableFuture.class) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return null;
+        }
+    }
+}
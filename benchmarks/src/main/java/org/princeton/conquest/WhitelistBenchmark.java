@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.princeton.conquest;
+
+import org.onlab.packet.Ip4Prefix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whitelist matching as the whitelist grows: the longest-prefix lookup done for each report, and rebuilding the
+ * whitelist after it changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WhitelistBenchmark {
+
+    private static final int ADDRESS_COUNT = 4096;
+
+    @Param({"10", "1000", "100000"})
+    int prefixCount;
+
+    private List<Ip4Prefix> prefixes;
+    private PrefixTrie whitelist;
+    private int[] addresses;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        prefixes = new ArrayList<>(prefixCount);
+        for (int i = 0; i < prefixCount; i++) {
+            prefixes.add(Ip4Prefix.valueOf(random.nextInt(), 8 + random.nextInt(25)));
+        }
+        whitelist = PrefixTrie.build(prefixes);
+        // Half of the looked up addresses fall inside a whitelisted prefix
+        addresses = new int[ADDRESS_COUNT];
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            if (i % 2 == 0) {
+                Ip4Prefix prefix = prefixes.get(random.nextInt(prefixCount));
+                int hostBits = 32 - prefix.prefixLength();
+                int host = hostBits == 0 ? 0 : random.nextInt() >>> (32 - hostBits);
+                addresses[i] = prefix.address().toInt() | host;
+            } else {
+                addresses[i] = random.nextInt();
+            }
+        }
+    }
+
+    @Benchmark
+    public Ip4Prefix longestMatch() {
+        int index = next;
+        next = (index + 1) % ADDRESS_COUNT;
+        return whitelist.longestMatch(addresses[index]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public PrefixTrie build() {
+        return PrefixTrie.build(prefixes);
+    }
+}
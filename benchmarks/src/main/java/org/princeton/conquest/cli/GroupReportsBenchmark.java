@@ -0,0 +1,63 @@
+package org.princeton.conquest.cli;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.princeton.conquest.ConQuestReport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-flow grouping of stored reports, as done by the read-reports command for query results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GroupReportsBenchmark {
+
+    @Param({"1000", "100000"})
+    int reportCount;
+
+    @Param({"10", "10000"})
+    int flowCount;
+
+    private List<ConQuestReport> reports;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        ConQuestReport[] flows = new ConQuestReport[flowCount];
+        for (int i = 0; i < flowCount; i++) {
+            flows[i] = new ConQuestReport(random.nextInt(), random.nextInt(), (short) random.nextInt(),
+                                          (short) random.nextInt(), (byte) 6, 0, 0);
+        }
+        reports = new ArrayList<>(reportCount);
+        long startMillis = System.currentTimeMillis();
+        for (int i = 0; i < reportCount; i++) {
+            ConQuestReport flow = flows[random.nextInt(flowCount)];
+            reports.add(new ConQuestReport(flow.srcIp(), flow.dstIp(), (short) flow.srcPortInt(),
+                                           (short) flow.dstPortInt(), flow.protocol(), random.nextInt(1 << 20),
+                                           startMillis + i));
+        }
+    }
+
+    @Benchmark
+    public Map<?, ?> groupReports() {
+        return ReadReportsCommand.groupReports(reports);
+    }
+}